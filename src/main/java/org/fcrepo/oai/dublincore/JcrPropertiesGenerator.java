@@ -15,75 +15,134 @@
  */
 package org.fcrepo.oai.dublincore;
 
-import com.hp.hpl.jena.graph.Triple;
-import org.apache.commons.lang.StringEscapeUtils;
-import org.fcrepo.http.api.FedoraNodes;
-import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
-import org.fcrepo.kernel.modeshape.rdf.impl.PropertiesRdfContext;
-import org.fcrepo.kernel.api.models.Container;
-import org.fcrepo.kernel.api.utils.iterators.RdfStream;
-import org.openarchives.oai._2_0.oai_dc.OaiDcType;
-import org.purl.dc.elements._1.ElementType;
-import org.purl.dc.elements._1.ObjectFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.jcr.RepositoryException;
-import javax.jcr.Session;
-import javax.ws.rs.core.UriInfo;
-import javax.xml.bind.JAXBElement;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.fcrepo.kernel.api.models.Container;
+import org.fcrepo.oai.service.MetadataFormat;
+import org.fcrepo.oai.service.MetadataGenerator;
+import org.fcrepo.oai.service.RecordContext;
+import org.fcrepo.oai.trace.HarvestStage;
+
+import com.hp.hpl.jena.graph.Node;
 
 /**
- * The type Jcr properties generator.
+ * The type Jcr properties generator. Generates oai_dc records from the object's RDF properties. Properties are
+ * written to the DC element they are mapped to, unmapped properties are written as dc:relation unless they are
+ * skipped.
  *
  * @author Frank Asseg
  */
-public class JcrPropertiesGenerator {
-    private static final ObjectFactory dcFactory = new ObjectFactory();
-    private static final org.openarchives.oai._2_0.oai_dc.ObjectFactory oaiDcFactory =
-            new org.openarchives.oai._2_0.oai_dc.ObjectFactory();
+public class JcrPropertiesGenerator implements MetadataGenerator {
+
+    private static final Set<String> DC_ELEMENTS = new HashSet<>(Arrays.asList("title", "creator", "subject",
+            "description", "publisher", "contributor", "date", "type", "format", "identifier", "source", "language",
+            "relation", "coverage", "rights"));
+
+    private static final String OAI_DC_NAMESPACE = "http://www.openarchives.org/OAI/2.0/oai_dc/";
 
+    private static final String DC_NAMESPACE = "http://purl.org/dc/elements/1.1/";
+
+    private Map<String, String> elements = Collections.emptyMap();
+
+    private boolean skipUnmapped;
 
     /**
-     * Generate dC.
+     * Sets the mapping of RDF properties to the DC elements their values are written to. The mapping is validated
+     * and copied into the lookup table used while generating records.
      *
-     * @param session the session
-     * @param obj the obj
-     * @param uriInfo the uri info
-     * @return the jAXB element
-     * @throws RepositoryException if repository exception occurred
+     * @param mapping the DC element names keyed by property URI
      */
-    public JAXBElement<OaiDcType> generateDC(final Session session, final Container obj, final UriInfo uriInfo)
-            throws RepositoryException {
-
-        final HttpResourceConverter converter = new HttpResourceConverter(session, uriInfo.getBaseUriBuilder()
-                .clone().path(FedoraNodes.class));
-        final OaiDcType oaidc = this.oaiDcFactory.createOaiDcType();
-
-        final ElementType valId = this.dcFactory.createElementType();
-        valId.setValue(escape(converter.toDomain(obj.getPath()).getURI()));
-        oaidc.getTitleOrCreatorOrSubject().add(this.dcFactory.createIdentifier(valId));
-
-        final ElementType valCreated = this.dcFactory.createElementType();
-        valCreated.setValue(escape(obj.getCreatedDate().toString()));
-        oaidc.getTitleOrCreatorOrSubject().add(this.dcFactory.createDate(valCreated));
-
-        final ElementType valCreator = this.dcFactory.createElementType();
-        valCreator.setValue(escape(obj.getProperty("jcr:createdBy").getValue().getString()));
-        oaidc.getTitleOrCreatorOrSubject().add(this.dcFactory.createCreator(valCreator));
-
-        final RdfStream triples = obj.getTriples(converter, PropertiesRdfContext.class);
-        while (triples.hasNext()) {
-            final ElementType valRel = this.dcFactory.createElementType();
-            final Triple triple = triples.next();
-            valRel.setValue(escape(triple.getPredicate().toString() + " " + triple.getObject().toString()));
-            oaidc.getTitleOrCreatorOrSubject().add(this.dcFactory.createRelation(valRel));
+    public void setElementMapping(final Map<String, String> mapping) {
+        final Map<String, String> table = new HashMap<>(mapping.size() * 2);
+        for (final Map.Entry<String, String> entry : mapping.entrySet()) {
+            if (!DC_ELEMENTS.contains(entry.getValue())) {
+                throw new IllegalArgumentException("The property " + entry.getKey() + " is mapped to "
+                        + entry.getValue() + " which is not a DC element");
+            }
+            table.put(entry.getKey(), entry.getValue().intern());
         }
+        this.elements = table;
+    }
 
-        oaidc.getTitleOrCreatorOrSubject().add(this.dcFactory.createSubject(valId));
+    /**
+     * Sets whether properties without a mapping are left out of the record instead of being written as
+     * dc:relation.
+     *
+     * @param skipUnmapped true to skip unmapped properties
+     */
+    public void setSkipUnmapped(final boolean skipUnmapped) {
+        this.skipUnmapped = skipUnmapped;
+    }
+
+    @Override
+    public Set<String> getProperties(final MetadataFormat format) {
+        /* only the mapped properties have to be read if the others are skipped */
+        return skipUnmapped ? elements.keySet() : null;
+    }
+
+    @Override
+    public boolean isAvailable(final MetadataFormat format, final RecordContext record) {
+        return true;
+    }
+
+    @Override
+    public void generate(final MetadataFormat format, final RecordContext record, final XMLStreamWriter writer)
+            throws XMLStreamException, RepositoryException {
+        try (final HarvestStage stage = record.getTrace().stage(HarvestStage.DC_GENERATION)) {
+            final Container obj = record.getContainer();
+            final String id = record.getConverter().toDomain(obj.getPath()).getURI();
 
-        return this.oaiDcFactory.createDc(oaidc);
+            writer.writeStartElement("oai_dc", "dc", OAI_DC_NAMESPACE);
+            writer.writeNamespace("oai_dc", OAI_DC_NAMESPACE);
+            writer.writeNamespace("dc", DC_NAMESPACE);
+            writeElement(writer, "identifier", id);
+            writeElement(writer, "date", obj.getCreatedDate().toString());
+            writeElement(writer, "creator", obj.getProperty("jcr:createdBy").getValue().getString());
+            for (final Map.Entry<String, List<Node>> property : record.getProperties().entrySet()) {
+                final String element = elements.get(property.getKey());
+                if (element != null) {
+                    for (final Node value : property.getValue()) {
+                        writeElement(writer, element, lexicalForm(value));
+                    }
+                } else if (!skipUnmapped) {
+                    for (final Node value : property.getValue()) {
+                        writer.writeStartElement("dc", "relation", DC_NAMESPACE);
+                        writer.writeCharacters(property.getKey());
+                        writer.writeCharacters(" ");
+                        writer.writeCharacters(value.toString());
+                        writer.writeEndElement();
+                    }
+                }
+            }
+            writeElement(writer, "subject", id);
+            writer.writeEndElement();
+        }
+    }
+
+    private static String lexicalForm(final Node value) {
+        if (value.isLiteral()) {
+            return value.getLiteralLexicalForm();
+        }
+        if (value.isURI()) {
+            return value.getURI();
+        }
+        return value.toString();
     }
 
-    private String escape(final String orig) {
-        return StringEscapeUtils.escapeXml(orig);
+    private static void writeElement(final XMLStreamWriter writer, final String name, final String value)
+            throws XMLStreamException {
+        writer.writeStartElement("dc", name, DC_NAMESPACE);
+        writer.writeCharacters(value);
+        writer.writeEndElement();
     }
 }
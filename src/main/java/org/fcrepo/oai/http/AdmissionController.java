@@ -0,0 +1,322 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.http;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fcrepo.metrics.RegistryService.getInstance;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * Limits the number of OAI list requests executing concurrently. Each client may hold a bounded number of
+ * permits and waits in its own queue for further ones, so a single harvester running parallel streams can not
+ * starve the others. Requests are rejected if the wait queue is full or the JVM is under heap or GC pressure.
+ *
+ * @author agent
+ */
+public class AdmissionController {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionController.class);
+
+    static final Counter rejectedCounter = getInstance().getMetrics().counter(
+            name(AdmissionController.class, "rejected"));
+
+    private final ConcurrentMap<String, ClientQueue> clients = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private Semaphore permits;
+
+    private int maxConcurrent = 8;
+
+    private int maxPerClient = 2;
+
+    private int maxQueued = 32;
+
+    private long queueTimeout = 10000;
+
+    private int retryAfter = 30;
+
+    private double maxHeapUsage = 0.9;
+
+    private double maxGcTimeRatio = 0.25;
+
+    private Set<String> trustedProxies = Collections.emptySet();
+
+    private long lastGcSample;
+
+    private long lastGcTime;
+
+    private volatile double gcTimeRatio;
+
+    /**
+     * Sets the maximum number of list requests executing concurrently.
+     *
+     * @param maxConcurrent the maximum number of concurrent requests
+     */
+    public void setMaxConcurrent(final int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Sets the maximum number of list requests a single client may execute concurrently.
+     *
+     * @param maxPerClient the maximum number of concurrent requests per client
+     */
+    public void setMaxPerClient(final int maxPerClient) {
+        this.maxPerClient = maxPerClient;
+    }
+
+    /**
+     * Sets the maximum number of requests waiting for admission.
+     *
+     * @param maxQueued the maximum number of waiting requests
+     */
+    public void setMaxQueued(final int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Sets the time in milliseconds a request may wait for admission.
+     *
+     * @param queueTimeout the timeout in milliseconds
+     */
+    public void setQueueTimeout(final long queueTimeout) {
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * Sets the number of seconds a rejected client is asked to wait before retrying.
+     *
+     * @param retryAfter the value of the Retry-After header in seconds
+     */
+    public void setRetryAfter(final int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Sets the fraction of the maximum heap above which requests are rejected.
+     *
+     * @param maxHeapUsage the heap usage threshold between 0 and 1
+     */
+    public void setMaxHeapUsage(final double maxHeapUsage) {
+        this.maxHeapUsage = maxHeapUsage;
+    }
+
+    /**
+     * Sets the addresses of the reverse proxies whose <code>X-Forwarded-For</code> header identifies the client.
+     * The header is ignored on requests from all other addresses, since clients can set it to any value.
+     *
+     * @param trustedProxies the proxies' addresses
+     */
+    public void setTrustedProxies(final Set<String> trustedProxies) {
+        this.trustedProxies = trustedProxies == null ? Collections.emptySet() : new HashSet<>(trustedProxies);
+    }
+
+    /**
+     * Identify the client of a request by its remote address, or by the address a trusted proxy forwarded the
+     * request for
+     *
+     * @param request the request
+     * @return the client's address
+     */
+    public String clientId(final HttpServletRequest request) {
+        final String remote = request.getRemoteAddr();
+        if (!trustedProxies.contains(remote)) {
+            return remote;
+        }
+        final String forwarded = request.getHeader("X-Forwarded-For");
+        if (forwarded == null || forwarded.isEmpty()) {
+            return remote;
+        }
+        /* the last hop not added by one of our proxies is the client as seen by the outermost trusted proxy */
+        final String[] hops = forwarded.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            final String hop = hops[i].trim();
+            if (!hop.isEmpty() && !trustedProxies.contains(hop)) {
+                return hop;
+            }
+        }
+        return remote;
+    }
+
+    /**
+     * Sets the fraction of wall clock time spent in garbage collection above which requests are rejected.
+     *
+     * @param maxGcTimeRatio the GC time threshold between 0 and 1
+     */
+    public void setMaxGcTimeRatio(final double maxGcTimeRatio) {
+        this.maxGcTimeRatio = maxGcTimeRatio;
+    }
+
+    /**
+     * Gets the number of seconds a rejected client is asked to wait before retrying.
+     *
+     * @return the value of the Retry-After header in seconds
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Initialize the global permits
+     */
+    @PostConstruct
+    public void init() {
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Wait for a permit to execute a list request on behalf of a client.
+     *
+     * @param client the client's identifier, e.g. its address
+     * @return the permit which has to be closed once the request finished, or null if the request was rejected
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public Permit admit(final String client) throws InterruptedException {
+        if (isUnderPressure()) {
+            log.debug("Rejecting request of {} due to memory pressure", client);
+            rejectedCounter.inc();
+            return null;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            log.debug("Rejecting request of {} since the admission queue is full", client);
+            rejectedCounter.inc();
+            return null;
+        }
+
+        final ClientQueue queue = clients.compute(client, (key, existing) -> {
+            final ClientQueue q = existing != null ? existing : new ClientQueue(maxPerClient);
+            q.users.incrementAndGet();
+            return q;
+        });
+        try {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+            if (queue.permits.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS)) {
+                if (permits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    return new Permit(client, queue);
+                }
+                queue.permits.release();
+            }
+            release(client, queue);
+            log.debug("Rejecting request of {} after waiting {} ms for admission", client, queueTimeout);
+            rejectedCounter.inc();
+            return null;
+        } catch (final InterruptedException e) {
+            release(client, queue);
+            throw e;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Check whether the heap usage or the time spent in garbage collection exceed their thresholds.
+     *
+     * @return true if the JVM is under memory pressure
+     */
+    public boolean isUnderPressure() {
+        final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        final long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+        if ((double) heap.getUsed() / max > maxHeapUsage) {
+            return true;
+        }
+        return sampleGcTimeRatio() > maxGcTimeRatio;
+    }
+
+    /**
+     * Check whether all global permits are currently in use.
+     *
+     * @return true if no further list request can execute right away
+     */
+    public boolean isSaturated() {
+        return permits.availablePermits() == 0;
+    }
+
+    private synchronized double sampleGcTimeRatio() {
+        final long now = System.currentTimeMillis();
+        if (now - lastGcSample < 1000) {
+            return gcTimeRatio;
+        }
+        long gcTime = 0;
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcTime += Math.max(0, gc.getCollectionTime());
+        }
+        if (lastGcSample > 0) {
+            gcTimeRatio = (double) (gcTime - lastGcTime) / (now - lastGcSample);
+        }
+        lastGcSample = now;
+        lastGcTime = gcTime;
+        return gcTimeRatio;
+    }
+
+    private void release(final String client, final ClientQueue queue) {
+        clients.computeIfPresent(client, (key, existing) ->
+                existing == queue && queue.users.decrementAndGet() == 0 ? null : existing);
+    }
+
+    private static class ClientQueue {
+
+        private final Semaphore permits;
+
+        private final AtomicInteger users = new AtomicInteger();
+
+        ClientQueue(final int maxPerClient) {
+            this.permits = new Semaphore(maxPerClient, true);
+        }
+    }
+
+    /**
+     * A permit to execute a list request which is returned on close
+     */
+    public class Permit implements AutoCloseable {
+
+        private final String client;
+
+        private final ClientQueue queue;
+
+        private Permit(final String client, final ClientQueue queue) {
+            this.client = client;
+            this.queue = queue;
+        }
+
+        @Override
+        public void close() {
+            permits.release();
+            queue.permits.release();
+            release(client, queue);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.http;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.PathSegment;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * A copy of a request's {@link UriInfo} which stays usable on other threads and after the request has been
+ * recycled by the container
+ *
+ * @author agent
+ */
+class DetachedUriInfo implements UriInfo {
+
+    private final URI baseUri;
+
+    private final URI requestUri;
+
+    private final URI absolutePath;
+
+    private final String path;
+
+    private final String encodedPath;
+
+    private final List<PathSegment> pathSegments;
+
+    private final List<PathSegment> encodedPathSegments;
+
+    private final MultivaluedMap<String, String> pathParameters;
+
+    private final MultivaluedMap<String, String> encodedPathParameters;
+
+    private final MultivaluedMap<String, String> queryParameters;
+
+    private final MultivaluedMap<String, String> encodedQueryParameters;
+
+    private final List<String> matchedUris;
+
+    private final List<String> encodedMatchedUris;
+
+    private final List<Object> matchedResources;
+
+    /**
+     * Copy the values of a request's uri info
+     *
+     * @param uriInfo the request's uri info
+     */
+    DetachedUriInfo(final UriInfo uriInfo) {
+        this(uriInfo, uriInfo.getRequestUri());
+    }
+
+    /**
+     * Copy the values of a request's uri info, replacing a request URI rewritten before the request was matched
+     *
+     * @param uriInfo the request's uri info
+     * @param requestUri the request URI sent by the client
+     */
+    DetachedUriInfo(final UriInfo uriInfo, final URI requestUri) {
+        this.baseUri = uriInfo.getBaseUri();
+        this.requestUri = requestUri;
+        this.absolutePath = UriBuilder.fromUri(requestUri).replaceQuery(null).fragment(null).build();
+        this.path = baseUri.relativize(absolutePath).getPath();
+        this.encodedPath = baseUri.relativize(absolutePath).getRawPath();
+        this.pathSegments = copy(uriInfo.getPathSegments(true));
+        this.encodedPathSegments = copy(uriInfo.getPathSegments(false));
+        this.pathParameters = new MultivaluedHashMap<>(uriInfo.getPathParameters(true));
+        this.encodedPathParameters = new MultivaluedHashMap<>(uriInfo.getPathParameters(false));
+        this.queryParameters = new MultivaluedHashMap<>(uriInfo.getQueryParameters(true));
+        this.encodedQueryParameters = new MultivaluedHashMap<>(uriInfo.getQueryParameters(false));
+        this.matchedUris = copy(uriInfo.getMatchedURIs(true));
+        this.encodedMatchedUris = copy(uriInfo.getMatchedURIs(false));
+        this.matchedResources = copy(uriInfo.getMatchedResources());
+    }
+
+    private static <T> List<T> copy(final List<T> list) {
+        return Collections.unmodifiableList(new ArrayList<>(list));
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String getPath(final boolean decode) {
+        return decode ? path : encodedPath;
+    }
+
+    @Override
+    public List<PathSegment> getPathSegments() {
+        return pathSegments;
+    }
+
+    @Override
+    public List<PathSegment> getPathSegments(final boolean decode) {
+        return decode ? pathSegments : encodedPathSegments;
+    }
+
+    @Override
+    public URI getRequestUri() {
+        return requestUri;
+    }
+
+    @Override
+    public UriBuilder getRequestUriBuilder() {
+        return UriBuilder.fromUri(requestUri);
+    }
+
+    @Override
+    public URI getAbsolutePath() {
+        return absolutePath;
+    }
+
+    @Override
+    public UriBuilder getAbsolutePathBuilder() {
+        return UriBuilder.fromUri(absolutePath);
+    }
+
+    @Override
+    public URI getBaseUri() {
+        return baseUri;
+    }
+
+    @Override
+    public UriBuilder getBaseUriBuilder() {
+        return UriBuilder.fromUri(baseUri);
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getPathParameters() {
+        return pathParameters;
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getPathParameters(final boolean decode) {
+        return decode ? pathParameters : encodedPathParameters;
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getQueryParameters() {
+        return queryParameters;
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getQueryParameters(final boolean decode) {
+        return decode ? queryParameters : encodedQueryParameters;
+    }
+
+    @Override
+    public List<String> getMatchedURIs() {
+        return matchedUris;
+    }
+
+    @Override
+    public List<String> getMatchedURIs(final boolean decode) {
+        return decode ? matchedUris : encodedMatchedUris;
+    }
+
+    @Override
+    public List<Object> getMatchedResources() {
+        return matchedResources;
+    }
+
+    @Override
+    public URI resolve(final URI uri) {
+        return baseUri.resolve(uri);
+    }
+
+    @Override
+    public URI relativize(final URI uri) {
+        final URI target = uri.isAbsolute() ? uri : resolve(uri);
+        return requestUri.resolve(".").relativize(target);
+    }
+}
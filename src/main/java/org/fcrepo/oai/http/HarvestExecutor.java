@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.http;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fcrepo.metrics.RegistryService.getInstance;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ConnectionCallback;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * A bounded executor running OAI list requests off the servlet container's threads, so long harvests do not hold
+ * the threads answering GetRecord and REST requests. Requests are resumed with 503 Service Unavailable if the
+ * executor's queue is full or the request times out, and are cancelled when the client disconnects. Suspending
+ * requests requires the Jersey servlet to be <code>async-supported</code>.
+ *
+ * @author agent
+ */
+public class HarvestExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(HarvestExecutor.class);
+
+    static final Counter timeoutCounter = getInstance().getMetrics().counter(
+            name(HarvestExecutor.class, "timeouts"));
+
+    static final Counter rejectedCounter = getInstance().getMetrics().counter(
+            name(HarvestExecutor.class, "rejected"));
+
+    private ThreadPoolExecutor executor;
+
+    private int threads = 4;
+
+    private int queueSize = 16;
+
+    private long timeout = 300;
+
+    private int retryAfter = 30;
+
+    /**
+     * Sets the number of threads executing list requests.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(final int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of list requests which may wait for a thread.
+     *
+     * @param queueSize the size of the queue
+     */
+    public void setQueueSize(final int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Sets the number of seconds after which a list request is cancelled.
+     *
+     * @param timeout the timeout in seconds
+     */
+    public void setTimeout(final long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets the number of seconds a rejected client is asked to wait before retrying.
+     *
+     * @param retryAfter the value of the Retry-After header in seconds
+     */
+    public void setRetryAfter(final int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Start the executor's threads
+     */
+    @PostConstruct
+    public void init() {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadFactory factory = r -> {
+            final Thread t = new Thread(r, "oai-harvest-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), factory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stop the executor's threads
+     */
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Execute a request on the executor and resume the suspended response with its result. A request which times
+     * out or whose client disconnects is cancelled. A cancelled request which has already started is interrupted and
+     * resumed with 503 Service Unavailable only once it has returned, since it may still be using the request's
+     * session, which is logged out when the response is resumed.
+     *
+     * @param response the suspended response
+     * @param task the request producing the response entity
+     */
+    public void execute(final AsyncResponse response, final Callable<Object> task) {
+        final Harvest harvest = new Harvest(response, task);
+        response.setTimeout(timeout, TimeUnit.SECONDS);
+        response.setTimeoutHandler(r -> {
+            if (!harvest.cancelled) {
+                timeoutCounter.inc();
+                log.warn("Cancelling list request after {} seconds", timeout);
+            }
+            if (!harvest.cancel()) {
+                /* wait for the interrupted request to return */
+                r.setTimeout(timeout, TimeUnit.SECONDS);
+            }
+        });
+        response.register((ConnectionCallback) r -> harvest.cancel());
+        try {
+            harvest.future = executor.submit(harvest);
+        } catch (final RejectedExecutionException e) {
+            log.debug("Rejecting list request since the harvest queue is full");
+            rejectedCounter.inc();
+            response.resume(OAIWebResource.serviceUnavailable(retryAfter));
+        }
+    }
+
+    /**
+     * A request executed on the executor. Either the request itself or a cancellation before it started claims the
+     * response, so it is resumed exactly once.
+     */
+    private class Harvest implements Runnable {
+
+        private final AsyncResponse response;
+
+        private final Callable<Object> task;
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private volatile Future<?> future;
+
+        private volatile boolean cancelled;
+
+        Harvest(final AsyncResponse response, final Callable<Object> task) {
+            this.response = response;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                final Object result = task.call();
+                response.resume(cancelled ? OAIWebResource.serviceUnavailable(retryAfter) : result);
+            } catch (final Exception e) {
+                if (cancelled) {
+                    response.resume(OAIWebResource.serviceUnavailable(retryAfter));
+                } else {
+                    response.resume(e);
+                }
+            }
+        }
+
+        /**
+         * Cancel the request
+         *
+         * @return true if the response was resumed, false if the request is still running
+         */
+        boolean cancel() {
+            cancelled = true;
+            final Future<?> f = future;
+            if (claimed.compareAndSet(false, true)) {
+                if (f != null) {
+                    f.cancel(false);
+                }
+                response.resume(OAIWebResource.serviceUnavailable(retryAfter));
+                return true;
+            }
+            if (f != null && !f.isDone()) {
+                f.cancel(true);
+                return false;
+            }
+            return true;
+        }
+    }
+}
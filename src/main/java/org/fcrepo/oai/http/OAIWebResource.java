@@ -15,6 +15,9 @@
  */
 package org.fcrepo.oai.http;
 
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.fcrepo.metrics.RegistryService.getInstance;
 import static org.openarchives.oai._2.VerbType.GET_RECORD;
 import static org.openarchives.oai._2.VerbType.IDENTIFY;
 import static org.openarchives.oai._2.VerbType.LIST_IDENTIFIERS;
@@ -22,30 +25,62 @@ import static org.openarchives.oai._2.VerbType.LIST_METADATA_FORMATS;
 import static org.openarchives.oai._2.VerbType.LIST_RECORDS;
 import static org.openarchives.oai._2.VerbType.LIST_SETS;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.file.Files;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
 import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import javax.xml.bind.JAXBException;
 
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.oai.jersey.HarvestRoutingFilter;
+import org.fcrepo.oai.service.MembershipResult;
 import org.fcrepo.oai.service.OAIProviderService;
+import org.fcrepo.oai.service.Partition;
+import org.fcrepo.oai.service.SessionPool;
+import org.fcrepo.oai.service.SetResult;
+import org.fcrepo.oai.service.SnapshotService;
 import org.openarchives.oai._2.OAIPMHerrorcodeType;
 import org.openarchives.oai._2.VerbType;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Scope;
 
+import com.codahale.metrics.ConsoleReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 /**
  * The type OAI web resource.
  *
@@ -55,12 +90,35 @@ import org.springframework.context.annotation.Scope;
 @Path("/oai")
 public class OAIWebResource {
 
+    private static final Logger log = LoggerFactory.getLogger(OAIWebResource.class);
+
+    static final MetricRegistry metrics = getInstance().getMetrics();
+
+    static final String ADMIN_ROLE = "fedoraAdmin";
+
+    /**
+     * The path of the suspended resource method answering list requests
+     */
+    public static final String LIST_PATH = "list";
+
     @Inject
     private Session session;
 
     @Autowired
     private OAIProviderService providerService;
 
+    @Autowired(required = false)
+    private AdmissionController admissionController;
+
+    @Autowired(required = false)
+    private HarvestExecutor harvestExecutor;
+
+    @Autowired(required = false)
+    private SnapshotService snapshotService;
+
+    @Autowired(required = false)
+    private SessionPool sessionPool;
+
     /**
      * Create set.
      *
@@ -78,7 +136,191 @@ public class OAIWebResource {
     }
 
     /**
-     * Gets OAI response.
+     * Create a batch of sets in a single transaction. The response lists one line per set in the order of the
+     * request, either <code>201 &lt;setSpec&gt; &lt;path&gt;</code>, <code>400 &lt;setSpec&gt; &lt;reason&gt;</code>
+     * for invalid sets or <code>409 &lt;setSpec&gt; &lt;reason&gt;</code> for sets which already exist
+     *
+     * @param uriInfo the uri info
+     * @param src the stream of set elements
+     * @return the response
+     * @throws RepositoryException the repository exception
+     */
+    @POST
+    @Path("/sets/batch")
+    @Consumes(MediaType.TEXT_XML)
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response createSets(@Context final UriInfo uriInfo, final InputStream src) throws RepositoryException {
+        final StringBuilder report = new StringBuilder();
+        for (final SetResult result : this.providerService.createSets(session, uriInfo, src)) {
+            if (result.isCreated()) {
+                report.append("201 ").append(result.getSetSpec()).append(' ').append(result.getPath());
+            } else {
+                report.append(result.isConflict() ? "409 " : "400 ").append(result.getSetSpec()).append(' ')
+                        .append(result.getError());
+            }
+            report.append('\n');
+        }
+        return Response.ok(report.toString()).build();
+    }
+
+    /**
+     * Add objects to or remove them from a set in bulk. The objects are either selected by a JCR-SQL2 query or
+     * read from the request body, one identifier per line. Progress is streamed back as one line per saved batch,
+     * the last line holding the totals or the error which stopped the update.
+     *
+     * @param setSpec the set's setSpec
+     * @param action either <code>add</code> or <code>remove</code>
+     * @param query an optional JCR-SQL2 query selecting the objects
+     * @param src the identifiers of the objects
+     * @return the response
+     * @throws RepositoryException the repository exception
+     */
+    @POST
+    @Path("/sets/{setSpec}/members")
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response updateSetMembers(@PathParam("setSpec") final String setSpec,
+            @QueryParam("action") @DefaultValue("add") final String action, @QueryParam("query") final String query,
+            final InputStream src) throws RepositoryException {
+        if (!"add".equals(action) && !"remove".equals(action)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Unknown action " + action).build();
+        }
+        if (!this.providerService.setExists(session, setSpec)) {
+            return Response.status(Response.Status.NOT_FOUND).entity("The OAI Set " + setSpec + " does not exist")
+                    .build();
+        }
+        final boolean remove = "remove".equals(action);
+        final StreamingOutput progress = sink -> {
+            final PrintWriter writer = new PrintWriter(new OutputStreamWriter(sink, UTF_8));
+            final Consumer<MembershipResult> report = result -> {
+                writer.println(result);
+                writer.flush();
+            };
+            try {
+                if (query != null) {
+                    this.providerService.updateSetMembers(session, setSpec, query, remove, report);
+                } else {
+                    final BufferedReader identifiers = new BufferedReader(new InputStreamReader(src, UTF_8));
+                    this.providerService.updateSetMembers(session, setSpec, identifiers.lines().iterator(), remove,
+                            report);
+                }
+            } catch (final RepositoryException | UncheckedIOException e) {
+                log.error("Unable to update the members of set {}", setSpec, e);
+                writer.println("error " + e.getMessage());
+                writer.flush();
+            }
+        };
+        return Response.ok(progress).build();
+    }
+
+    /**
+     * Report the OAI provider's request, query and record assembly metrics. Only available to administrators.
+     *
+     * @param servletRequest the servlet request used to check the client's role
+     * @return a plain text report of the metrics
+     * @throws UnsupportedEncodingException if UTF-8 is not supported
+     */
+    @GET
+    @Path("/metrics")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response getMetrics(@Context final HttpServletRequest servletRequest)
+            throws UnsupportedEncodingException {
+        if (!servletRequest.isUserInRole(ADMIN_ROLE)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        ConsoleReporter.forRegistry(metrics)
+                .outputTo(new PrintStream(sink, true, "UTF-8"))
+                .filter(OAIProviderService.OAI_METRICS)
+                .build()
+                .report();
+        return Response.ok(sink.toString("UTF-8")).build();
+    }
+
+    /**
+     * Report whether the OAI provider has finished warming up, for use as a readiness probe
+     *
+     * @return 200 once the provider is ready, 503 while it is warming up
+     */
+    @GET
+    @Path("/ready")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response getReadiness() {
+        if (providerService.isReady()) {
+            return Response.ok("ready").build();
+        }
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity("warming up").build();
+    }
+
+    /**
+     * Explain how a ListRecords or ListIdentifiers page is assembled: the queries run, ModeShape's plans and the
+     * indexes they use, the row counts and the time spent in each stage. Only available to administrators.
+     *
+     * @param verb the list verb
+     * @param metadataPrefixParam the metadata prefix
+     * @param fromParam the from
+     * @param untilParam the until
+     * @param setParam the set
+     * @param partitionParam the partition as <code>k/n</code>
+     * @param resumptionToken the resumption token of the page to explain
+     * @param uriInfo the uri info
+     * @param servletRequest the servlet request used to check the client's role
+     * @return a plain text report
+     * @throws RepositoryException the repository exception
+     */
+    @GET
+    @Path("/explain")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response explain(@QueryParam("verb") final String verb,
+            @QueryParam("metadataPrefix") final String metadataPrefixParam, @QueryParam("from") final String fromParam,
+            @QueryParam("until") final String untilParam, @QueryParam("set") final String setParam,
+            @QueryParam("partition") final String partitionParam,
+            @QueryParam("resumptionToken") final String resumptionToken, @Context final UriInfo uriInfo,
+            @Context final HttpServletRequest servletRequest) throws RepositoryException {
+        if (!servletRequest.isUserInRole(ADMIN_ROLE)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        try {
+            if (resumptionToken != null) {
+                final ResumptionToken token = providerService.decodeResumptionToken(resumptionToken);
+                return Response.ok(providerService.explain(session, uriInfo, VerbType.fromValue(token.getVerb()),
+                        token.getMetadataPrefix(), token.getFrom(), token.getUntil(), token.getSet(),
+                        Partition.parse(token.getPartition()), token.getCursor())).build();
+            }
+            return Response.ok(providerService.explain(session, uriInfo, VerbType.fromValue(verb),
+                    metadataPrefixParam, fromParam, untilParam, setParam, Partition.parse(partitionParam), null))
+                    .build();
+        } catch (final IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid arguments: " + e.getMessage())
+                    .build();
+        }
+    }
+
+    /**
+     * Get the OAI-PMH Static Repository rendered with the last snapshot
+     *
+     * @param servletRequest the servlet request used to check the user's rights
+     * @return the response
+     */
+    @GET
+    @Path("/static-repository")
+    @Produces(MediaType.TEXT_XML)
+    public Response getStaticRepository(final @Context HttpServletRequest servletRequest) {
+        if (!mayReadAll(servletRequest)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        final File file = snapshotService == null ? null : snapshotService.getStaticRepository();
+        if (file == null || !file.isFile()) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok((StreamingOutput) sink -> Files.copy(file.toPath(), sink)).build();
+    }
+
+    /**
+     * Gets OAI response. Full list requests of users who may read all objects are answered from the
+     * {@link SnapshotService}'s pages if a current snapshot exists. If a {@link HarvestExecutor} is configured, list
+     * requests are routed to {@link #getOAIListResponse} before they reach this method, all other requests are
+     * answered on the container's thread.
      *
      * @param verbParam the verb
      * @param identifierParam the identifier
@@ -86,9 +328,11 @@ public class OAIWebResource {
      * @param fromParam the from
      * @param untilParam the until
      * @param setParam the set
+     * @param partitionParam the partition of a list request as <code>k/n</code>
      * @param resumptionToken the resumption token
      * @param uriInfo the uri info
-     * @return the oAI response
+     * @param servletRequest the servlet request used to identify the client
+     * @return the OAI response
      * @throws RepositoryException the repository exception
      */
     @GET
@@ -97,30 +341,84 @@ public class OAIWebResource {
             final @QueryParam("verb") String verbParam, final @QueryParam("identifier") String identifierParam,
             final @QueryParam("metadataPrefix") String metadataPrefixParam, final @QueryParam("from") String fromParam,
             final @QueryParam("until") String untilParam, final @QueryParam("set") String setParam,
-            final @QueryParam("resumptionToken") String resumptionToken, final @Context UriInfo uriInfo)
+            final @QueryParam("partition") String partitionParam,
+            final @QueryParam("resumptionToken") String resumptionToken, final @Context UriInfo uriInfo,
+            final @Context HttpServletRequest servletRequest) throws RepositoryException {
+        return getOAIResponse(verbParam, identifierParam, metadataPrefixParam, fromParam, untilParam, setParam,
+                partitionParam, resumptionToken, uriInfo, servletRequest, null);
+    }
+
+    /**
+     * Gets the OAI response of a list request routed here by the {@link HarvestRoutingFilter}. The response is
+     * suspended and the list is assembled on the {@link HarvestExecutor}, which frees the container's thread for
+     * other requests while the harvest's queries run.
+     *
+     * @param verbParam the verb
+     * @param identifierParam the identifier
+     * @param metadataPrefixParam the metadata prefix
+     * @param fromParam the from
+     * @param untilParam the until
+     * @param setParam the set
+     * @param partitionParam the partition of a list request as <code>k/n</code>
+     * @param resumptionToken the resumption token
+     * @param uriInfo the uri info
+     * @param servletRequest the servlet request used to identify the client
+     * @param asyncResponse the suspended response which is resumed with the OAI response
+     * @throws RepositoryException the repository exception
+     */
+    @GET
+    @Path("/" + LIST_PATH)
+    @Produces(MediaType.TEXT_XML)
+    public void getOAIListResponse(
+            final @QueryParam("verb") String verbParam, final @QueryParam("identifier") String identifierParam,
+            final @QueryParam("metadataPrefix") String metadataPrefixParam, final @QueryParam("from") String fromParam,
+            final @QueryParam("until") String untilParam, final @QueryParam("set") String setParam,
+            final @QueryParam("partition") String partitionParam,
+            final @QueryParam("resumptionToken") String resumptionToken, final @Context UriInfo uriInfo,
+            final @Context HttpServletRequest servletRequest, final @Suspended AsyncResponse asyncResponse)
             throws RepositoryException {
+        final Object response = getOAIResponse(verbParam, identifierParam, metadataPrefixParam, fromParam,
+                untilParam, setParam, partitionParam, resumptionToken, uriInfo, servletRequest,
+                harvestExecutor == null ? null : asyncResponse);
+        if (response != null) {
+            asyncResponse.resume(response);
+        }
+    }
 
-        int offset = 0;
+    /**
+     * Answer an OAI request, handing list requests to the {@link HarvestExecutor} if a suspended response is given
+     *
+     * @return the OAI response, or null if the request was handed to the executor, which resumes the response
+     */
+    private Object getOAIResponse(final String verbParam, final String identifierParam,
+            final String metadataPrefixParam, final String fromParam, final String untilParam, final String setParam,
+            final String partitionParam, final String resumptionToken, final UriInfo uriInfo,
+            final HttpServletRequest servletRequest, final AsyncResponse asyncResponse) throws RepositoryException {
 
+        final String cursor;
         final String verb;
         final String from;
         final String until;
         final String set;
         final String metadataPrefix;
         final String identifier;
+        final String partition;
+        final long harvestStart;
 
         if (resumptionToken != null && !resumptionToken.isEmpty()) {
             /* If there's a resumption token present the data provided in the
-                base64 encoded token is used to generate the request */
+                signed token is used to generate the request */
             try {
-                final ResumptionToken token = OAIProviderService.decodeResumptionToken(resumptionToken);
+                final ResumptionToken token = providerService.decodeResumptionToken(resumptionToken);
                 identifier = null;
                 verb = token.getVerb();
                 from = token.getFrom();
                 until = token.getUntil();
                 set = token.getSet();
                 metadataPrefix = token.getMetadataPrefix();
-                offset = token.getOffset();
+                partition = token.getPartition();
+                cursor = token.getCursor();
+                harvestStart = token.getHarvestStart();
             } catch (Exception e) {
                 return providerService.error(null, null, null, OAIPMHerrorcodeType.BAD_RESUMPTION_TOKEN,
                         "Resumption token is invalid");
@@ -133,6 +431,9 @@ public class OAIWebResource {
             until = untilParam;
             set = setParam;
             metadataPrefix = metadataPrefixParam;
+            partition = partitionParam;
+            cursor = null;
+            harvestStart = System.currentTimeMillis();
         }
 
         /* decide what to do depending on the verb passed */
@@ -141,11 +442,137 @@ public class OAIWebResource {
                     "Verb is required");
         }
 
+        final boolean anonymous = servletRequest.getUserPrincipal() == null;
+        final boolean privileged = mayReadAll(servletRequest);
+        if (snapshotService != null && privileged && isEmpty(identifier) && isEmpty(from) && isEmpty(until)
+                && isEmpty(partition)) {
+            try {
+                final File page = snapshotService.findPage(session, verb, metadataPrefix, set, cursor);
+                if (page != null) {
+                    return snapshotPage(page, servletRequest.getHeader("Accept-Encoding"));
+                }
+            } catch (final RepositoryException e) {
+                log.warn("Unable to look up the snapshot page of a {} request", verb, e);
+            }
+        }
+
+        final String client = admissionController == null ? null : admissionController.clientId(servletRequest);
+        if (asyncResponse == null || !isListVerb(verb)) {
+            return respond(client, anonymous, privileged, this.session, verb, identifier, metadataPrefix, from,
+                    until, set, partition, cursor, harvestStart, uriInfo);
+        }
+
+        /* the request scoped values are resolved here, they are not available on the executor's threads */
+        final Session requestSession = this.session;
+        final Object requestUri = servletRequest.getAttribute(HarvestRoutingFilter.REQUEST_URI);
+        final UriInfo requestUriInfo = requestUri instanceof URI ? new DetachedUriInfo(uriInfo, (URI) requestUri)
+                : new DetachedUriInfo(uriInfo);
+        harvestExecutor.execute(asyncResponse, () -> respond(client, anonymous, privileged, requestSession, verb,
+                identifier, metadataPrefix, from, until, set, partition, cursor, harvestStart, requestUriInfo));
+        return null;
+    }
+
+    /* snapshots and pages assembled with an internal session are only shared with requests which may read all
+        objects */
+    private boolean mayReadAll(final HttpServletRequest servletRequest) {
+        final boolean anonymous = servletRequest.getUserPrincipal() == null;
+        return !(anonymous && sessionPool != null)
+                && (providerService.isReadUnrestricted() || servletRequest.isUserInRole(ADMIN_ROLE));
+    }
+
+    private Object respond(final String client, final boolean anonymous, final boolean privileged,
+            final Session requestSession, final String verb, final String identifier, final String metadataPrefix,
+            final String from, final String until, final String set, final String partition, final String cursor,
+            final long harvestStart, final UriInfo uriInfo) throws RepositoryException {
+        try (final Timer.Context timer = verbTimer(verb).time()) {
+            if (admissionController != null && isListVerb(verb)) {
+                return admitAndDispatch(client, anonymous, privileged, requestSession, verb, identifier,
+                        metadataPrefix, from, until, set, partition, cursor, harvestStart, uriInfo);
+            }
+            return dispatch(anonymous, privileged, requestSession, verb, identifier, metadataPrefix, from, until, set,
+                    partition, cursor, harvestStart, uriInfo);
+        }
+    }
+
+    private Object admitAndDispatch(final String client, final boolean anonymous, final boolean privileged,
+            final Session requestSession, final String verb, final String identifier, final String metadataPrefix,
+            final String from, final String until, final String set, final String partition, final String cursor,
+            final long harvestStart, final UriInfo uriInfo) throws RepositoryException {
+        try (final AdmissionController.Permit permit = admissionController.admit(client)) {
+            if (permit == null) {
+                return serviceUnavailable(admissionController.getRetryAfter());
+            }
+            return dispatch(anonymous, privileged, requestSession, verb, identifier, metadataPrefix, from, until,
+                    set, partition, cursor, harvestStart, uriInfo);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for admission of {}", client);
+            return serviceUnavailable(admissionController.getRetryAfter());
+        }
+    }
+
+    static Response serviceUnavailable(final int retryAfter) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", retryAfter)
+                .build();
+    }
+
+    /**
+     * Serve a gzip'd snapshot page. Clients accepting gzip get the file's bytes as they are stored, all others a
+     * decompressed copy.
+     */
+    private static Response snapshotPage(final File page, final String acceptEncoding) {
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            return Response.ok((StreamingOutput) sink -> Files.copy(page.toPath(), sink))
+                    .header("Content-Encoding", "gzip").header("Vary", "Accept-Encoding").build();
+        }
+        return Response.ok((StreamingOutput) sink -> {
+            try (final InputStream src = new GZIPInputStream(new FileInputStream(page))) {
+                IOUtils.copy(src, sink);
+            }
+        }).header("Vary", "Accept-Encoding").build();
+    }
+
+    private static boolean isEmpty(final String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static boolean isListVerb(final String verb) {
+        return verb.equals(LIST_RECORDS.value()) || verb.equals(LIST_IDENTIFIERS.value())
+                || verb.equals(LIST_SETS.value());
+    }
+
+    /**
+     * Dispatch a request on a pooled session if it is anonymous and a session is available, otherwise on the
+     * request's own session
+     */
+    private Object dispatch(final boolean anonymous, final boolean privileged, final Session requestSession,
+            final String verb, final String identifier, final String metadataPrefix, final String from,
+            final String until, final String set, final String partition, final String cursor, final long harvestStart,
+            final UriInfo uriInfo) throws RepositoryException {
+        final Session pooled = anonymous && sessionPool != null ? sessionPool.borrow() : null;
+        if (pooled == null) {
+            return dispatch(requestSession, privileged, verb, identifier, metadataPrefix, from, until, set,
+                    partition, cursor, harvestStart, uriInfo);
+        }
+        try {
+            return dispatch(pooled, false, verb, identifier, metadataPrefix, from, until, set, partition, cursor,
+                    harvestStart, uriInfo);
+        } finally {
+            sessionPool.release(pooled);
+        }
+    }
+
+    private Object dispatch(final Session session, final boolean prefetch, final String verb,
+            final String identifier, final String metadataPrefix, final String from, final String until,
+            final String set, final String partition, final String cursor, final long harvestStart,
+            final UriInfo uriInfo) throws RepositoryException {
+
         /* identify response */
         if (verb.equals(IDENTIFY.value())) {
             try {
-                verifyEmpty(identifier, metadataPrefix, from, until, set);
-                return providerService.identify(this.session, uriInfo);
+                verifyEmpty(identifier, metadataPrefix, from, until, set, partition);
+                return providerService.identify(session, uriInfo);
             } catch (JAXBException | IllegalArgumentException e) {
                 return providerService.error(VerbType.IDENTIFY, identifier, metadataPrefix,
                         OAIPMHerrorcodeType.BAD_ARGUMENT, "Invalid arguments");
@@ -155,8 +582,8 @@ public class OAIWebResource {
         /* ListMetadataFormats response */
         if (verb.equals(LIST_METADATA_FORMATS.value())) {
             try {
-                verifyEmpty(from, until, set);
-                return providerService.listMetadataFormats(this.session, uriInfo, identifier);
+                verifyEmpty(from, until, set, partition);
+                return providerService.listMetadataFormats(session, uriInfo, identifier);
             } catch (IllegalArgumentException e) {
                 return providerService.error(VerbType.LIST_METADATA_FORMATS, identifier, metadataPrefix,
                         OAIPMHerrorcodeType.BAD_ARGUMENT, "Invalid arguments");
@@ -166,8 +593,8 @@ public class OAIWebResource {
         /* GetRecord response */
         if (verb.equals(GET_RECORD.value())) {
             try {
-                verifyEmpty(from, until, set);
-                return providerService.getRecord(this.session, uriInfo, identifier, metadataPrefix);
+                verifyEmpty(from, until, set, partition);
+                return providerService.getRecord(session, uriInfo, identifier, metadataPrefix);
 
             } catch (IllegalArgumentException e) {
                 return providerService.error(VerbType.GET_RECORD, identifier, metadataPrefix,
@@ -179,7 +606,8 @@ public class OAIWebResource {
         if (verb.equals(LIST_IDENTIFIERS.value())) {
             try {
                 verifyEmpty(identifier);
-                return providerService.listIdentifiers(this.session, uriInfo, metadataPrefix, from, until, set, offset);
+                return providerService.listIdentifiers(session, uriInfo, metadataPrefix, from, until, set,
+                        Partition.parse(partition), cursor, harvestStart, prefetch);
             } catch (IllegalArgumentException e) {
                 return providerService.error(VerbType.LIST_IDENTIFIERS, identifier, metadataPrefix,
                         OAIPMHerrorcodeType.BAD_ARGUMENT, "Invalid arguments");
@@ -189,19 +617,20 @@ public class OAIWebResource {
         /* list sets response */
         if (verb.equals(LIST_SETS.value())) {
             try {
-                verifyEmpty(identifier);
+                verifyEmpty(identifier, partition);
             } catch (IllegalArgumentException e) {
                 return providerService.error(VerbType.LIST_SETS, identifier, metadataPrefix,
                         OAIPMHerrorcodeType.BAD_ARGUMENT, "Invalid arguments");
             }
-            return providerService.listSets(session, uriInfo, offset);
+            return providerService.listSets(session, uriInfo, cursor, harvestStart);
         }
 
         /* list records response */
         if (verb.equals(LIST_RECORDS.value())) {
             try {
                 verifyEmpty(identifier);
-                return  providerService.listRecords(this.session, uriInfo, metadataPrefix, from, until, set, offset);
+                return  providerService.listRecords(session, uriInfo, metadataPrefix, from, until, set,
+                        Partition.parse(partition), cursor, harvestStart, prefetch);
             } catch (IllegalArgumentException e) {
                 return providerService.error(VerbType.LIST_SETS, identifier, metadataPrefix,
                         OAIPMHerrorcodeType.BAD_ARGUMENT, "Invalid arguments");
@@ -211,6 +640,15 @@ public class OAIWebResource {
                 "Unknown verb '" + verb + "'");
     }
 
+    private static Timer verbTimer(final String verb) {
+        for (final VerbType type : VerbType.values()) {
+            if (type.value().equals(verb)) {
+                return metrics.timer(name(OAIWebResource.class, "verb", verb));
+            }
+        }
+        return metrics.timer(name(OAIWebResource.class, "verb", "unknown"));
+    }
+
     private void verifyEmpty(final String... data) throws IllegalArgumentException {
         for (String s : data) {
             if (s != null && !s.isEmpty()) {
@@ -28,12 +28,16 @@ public class ResumptionToken {
 
     private final String until;
 
-    private final int offset;
+    private final String cursor;
 
     private final String set;
 
     private final String metadataPrefix;
 
+    private final String partition;
+
+    private final long harvestStart;
+
     /**
      * Create a new resumption token with the given OAI parameters
      *
@@ -41,17 +45,36 @@ public class ResumptionToken {
      * @param metadataPrefix the OAI metadata prefix
      * @param from the first date constraint value
      * @param until the secod date constraint value
-     * @param offset indicates the current cursor position for list operations
+     * @param cursor the key of the last item listed, the next page starts after it, or null for the first page
      * @param set the name of the OAI set
      */
     public ResumptionToken(final String verb, final String metadataPrefix, final String from, final String until,
-            final int offset, final String set) {
+            final String cursor, final String set) {
+        this(verb, metadataPrefix, from, until, cursor, set, null, 0);
+    }
+
+    /**
+     * Create a new resumption token with the given OAI parameters, partition and harvest start
+     *
+     * @param verb the OAI verb
+     * @param metadataPrefix the OAI metadata prefix
+     * @param from the first date constraint value
+     * @param until the secod date constraint value
+     * @param cursor the key of the last item listed, the next page starts after it, or null for the first page
+     * @param set the name of the OAI set
+     * @param partition the partition of the list request as <code>k/n</code>
+     * @param harvestStart the time in milliseconds the first page of the list request was issued
+     */
+    public ResumptionToken(final String verb, final String metadataPrefix, final String from, final String until,
+            final String cursor, final String set, final String partition, final long harvestStart) {
         this.verb = verb;
         this.from = from;
         this.metadataPrefix = metadataPrefix;
         this.until = until;
-        this.offset = offset;
+        this.cursor = cursor;
         this.set = set;
+        this.partition = partition;
+        this.harvestStart = harvestStart;
     }
 
     /**
@@ -64,12 +87,12 @@ public class ResumptionToken {
     }
 
     /**
-     * Gets offset.
+     * Gets the cursor, the path of the last object or the setSpec of the last set listed.
      *
-     * @return the offset
+     * @return the cursor or null for the first page
      */
-    public int getOffset() {
-        return offset;
+    public String getCursor() {
+        return cursor;
     }
 
     /**
@@ -107,4 +130,22 @@ public class ResumptionToken {
     public String getSet() {
         return set;
     }
+
+    /**
+     * Gets partition.
+     *
+     * @return the partition
+     */
+    public String getPartition() {
+        return partition;
+    }
+
+    /**
+     * Gets harvest start.
+     *
+     * @return the time in milliseconds the first page of the list request was issued
+     */
+    public long getHarvestStart() {
+        return harvestStart;
+    }
 }
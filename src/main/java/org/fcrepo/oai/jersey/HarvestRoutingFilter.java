@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.jersey;
+
+import static org.openarchives.oai._2.VerbType.LIST_IDENTIFIERS;
+import static org.openarchives.oai._2.VerbType.LIST_RECORDS;
+import static org.openarchives.oai._2.VerbType.LIST_SETS;
+
+import org.apache.commons.lang.StringUtils;
+import org.fcrepo.oai.http.HarvestExecutor;
+import org.fcrepo.oai.http.OAIWebResource;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Routes OAI list requests to the suspended {@link OAIWebResource#getOAIListResponse} if a {@link HarvestExecutor}
+ * is configured. JAX-RS can not select a resource method by query parameter, so the request is rewritten to the
+ * method's path before matching. The original request URI is kept in the {@link #REQUEST_URI} property.
+ *
+ * @author agent
+ */
+@Provider
+@PreMatching
+public class HarvestRoutingFilter implements ContainerRequestFilter {
+
+    /**
+     * The property holding the request URI before it was rewritten
+     */
+    public static final String REQUEST_URI = HarvestRoutingFilter.class.getName() + ".requestUri";
+
+    @Autowired(required = false)
+    private HarvestExecutor harvestExecutor;
+
+    @Override
+    public void filter(final ContainerRequestContext context) {
+        if (harvestExecutor == null || !HttpMethod.GET.equals(context.getMethod())) {
+            return;
+        }
+        final UriInfo uriInfo = context.getUriInfo();
+        if (!"oai".equals(StringUtils.strip(uriInfo.getPath(), "/"))) {
+            return;
+        }
+        final MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
+        final String verb = params.getFirst("verb");
+        /* only list requests are issued resumption tokens */
+        if (params.containsKey("resumptionToken") || LIST_RECORDS.value().equals(verb)
+                || LIST_IDENTIFIERS.value().equals(verb) || LIST_SETS.value().equals(verb)) {
+            context.setProperty(REQUEST_URI, uriInfo.getRequestUri());
+            context.setRequestUri(uriInfo.getRequestUriBuilder().path(OAIWebResource.LIST_PATH).build());
+        }
+    }
+}
@@ -15,56 +15,31 @@
  */
 package org.fcrepo.oai.jersey;
 
-import com.sun.xml.bind.marshaller.CharacterEscapeHandler;
+import org.fcrepo.oai.service.OaiJaxbContext;
 import org.openarchives.oai._2.OAIPMHtype;
-import org.openarchives.oai._2_0.oai_dc.OaiDcType;
 
 import javax.ws.rs.ext.ContextResolver;
 import javax.ws.rs.ext.Provider;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
-import java.io.IOException;
-import java.io.Writer;
 
 /**
- * The type Oai jaxb provider.
+ * The type Oai jaxb provider. Marshallers are not thread safe, so each response gets its own marshaller of the
+ * shared {@link OaiJaxbContext}.
  * 
  * @author Frank Asseg
  */
 @Provider
 public class OaiJaxbProvider implements ContextResolver<Marshaller> {
 
-    private final Marshaller marshaller;
-
-    /**
-     * Instantiates a new Oai jaxb provider.
-     *
-     * @throws JAXBException the jAXB exception
-     */
-    public OaiJaxbProvider() throws JAXBException {
-        this.marshaller = JAXBContext.newInstance(OaiDcType.class, OAIPMHtype.class).createMarshaller();
-        this.marshaller.setProperty("com.sun.xml.bind.marshaller.CharacterEscapeHandler", new CharacterEscapeHandler() {
-            @Override
-            public void escape(final char[] chars, final int start, final int len, final boolean isAttr,
-                               final Writer writer) throws IOException {
-                final StringBuilder data = new StringBuilder(len);
-                for (int i = start; i < len + start; i++) {
-                    if (chars[i] == '&') {
-                        data.append("&amp;");
-                    } else {
-                        data.append(chars[i]);
-                    }
-                }
-                writer.write(data.toString());
-            }
-        });
-    }
-
     @Override
     public Marshaller getContext(final Class<?> aClass) {
         if (aClass == OAIPMHtype.class) {
-            return this.marshaller;
+            try {
+                return OaiJaxbContext.get().createMarshaller();
+            } catch (final JAXBException e) {
+                throw new IllegalStateException("Unable to create an OAI marshaller", e);
+            }
         }
         return null;
     }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.jersey;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.fcrepo.oai.trace.HarvestStage;
+import org.fcrepo.oai.trace.HarvestTrace;
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.RequestType;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import javax.xml.bind.JAXBElement;
+import java.io.IOException;
+
+/**
+ * Records the marshalling of OAI responses as a {@link HarvestStage}
+ *
+ * @author agent
+ */
+@Provider
+public class OaiMarshallingInterceptor implements WriterInterceptor {
+
+    @Override
+    public void aroundWriteTo(final WriterInterceptorContext context) throws IOException, WebApplicationException {
+        final Object entity = context.getEntity();
+        if (!(entity instanceof JAXBElement) || !(((JAXBElement<?>) entity).getValue() instanceof OAIPMHtype)) {
+            context.proceed();
+            return;
+        }
+
+        final RequestType req = ((OAIPMHtype) ((JAXBElement<?>) entity).getValue()).getRequest();
+        final HarvestTrace trace = req == null ? new HarvestTrace(null, null, 0)
+                : new HarvestTrace(req.getVerb(), req.getMetadataPrefix(), 0);
+        final CountingOutputStream sink = new CountingOutputStream(context.getOutputStream());
+        context.setOutputStream(sink);
+        try (final HarvestStage stage = trace.stage(HarvestStage.MARSHALLING)) {
+            context.proceed();
+            stage.bytes(sink.getByteCount());
+        }
+    }
+}
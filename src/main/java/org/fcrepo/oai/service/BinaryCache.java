@@ -0,0 +1,424 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static org.fcrepo.oai.service.OAIProviderService.cacheHitMeter;
+import static org.fcrepo.oai.service.OAIProviderService.cacheMissMeter;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.PostConstruct;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.kernel.api.models.FedoraBinary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the content of stored record binaries keyed by their content digest, so records shared by many objects
+ * are read from the repository once. Small records are kept in memory, records evicted from memory and records too
+ * large for it are spilled to a local directory if one is configured. Records too large for memory are streamed
+ * straight from the repository and copied to the spill directory while they are read, records too large for the
+ * spill directory are not cached at all. Concurrent reads of the same uncached small content wait for a single load.
+ *
+ * @author agent
+ */
+public class BinaryCache {
+
+    private static final Logger log = LoggerFactory.getLogger(BinaryCache.class);
+
+    private static final String SUFFIX = ".record";
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<String, CompletableFuture<byte[]>> loading = new ConcurrentHashMap<>();
+
+    private long memoryBytes;
+
+    private long diskBytes;
+
+    private long maxMemory = 64 * 1024 * 1024;
+
+    private long maxEntrySize = 1024 * 1024;
+
+    private long maxDisk = 1024 * 1024 * 1024;
+
+    private Path spillDirectory;
+
+    /**
+     * Sets the number of bytes kept in memory.
+     *
+     * @param maxMemory the maximum number of bytes in memory
+     */
+    public void setMaxMemory(final long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Sets the size of the largest record kept in memory.
+     *
+     * @param maxEntrySize the maximum size of a record in memory
+     */
+    public void setMaxEntrySize(final long maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * Sets the number of bytes kept in the spill directory.
+     *
+     * @param maxDisk the maximum number of bytes on disk
+     */
+    public void setMaxDisk(final long maxDisk) {
+        this.maxDisk = maxDisk;
+    }
+
+    /**
+     * Sets the directory records are spilled to. Records are only kept in memory if it is not set.
+     *
+     * @param spillDirectory the spill directory
+     */
+    public void setSpillDirectory(final String spillDirectory) {
+        this.spillDirectory = spillDirectory == null || spillDirectory.isEmpty() ? null : Paths.get(spillDirectory);
+    }
+
+    /**
+     * Prepare the spill directory, removing records spilled by a previous run
+     *
+     * @throws IOException if the directory can not be created
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        if (spillDirectory == null) {
+            return;
+        }
+        Files.createDirectories(spillDirectory);
+        try (final DirectoryStream<Path> stale = Files.newDirectoryStream(spillDirectory, "*" + SUFFIX)) {
+            for (final Path file : stale) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Open the content of a record binary
+     *
+     * @param binary the binary holding the record
+     * @return the content
+     * @throws RepositoryException the repository exception
+     * @throws IOException if the content can not be read
+     */
+    public InputStream open(final FedoraBinary binary) throws RepositoryException, IOException {
+        final URI digest = binary.getContentDigest();
+        if (digest == null) {
+            cacheMissMeter.mark();
+            return binary.getContent();
+        }
+        final String key = key(digest);
+
+        final byte[] cached = getFromMemory(key);
+        if (cached != null) {
+            cacheHitMeter.mark();
+            return new ByteArrayInputStream(cached);
+        }
+        final InputStream spilled = openFromDisk(key);
+        if (spilled != null) {
+            cacheHitMeter.mark();
+            return spilled;
+        }
+
+        cacheMissMeter.mark();
+        final long size = binary.getContentSize();
+        if (size > maxEntrySize) {
+            if (spillDirectory == null || size > maxDisk) {
+                return binary.getContent();
+            }
+            return new SpillingInputStream(key, binary.getContent());
+        }
+        return new ByteArrayInputStream(load(key, binary));
+    }
+
+    /**
+     * Read a record into memory, letting concurrent readers of the same content wait for a single read
+     */
+    private byte[] load(final String key, final FedoraBinary binary) throws RepositoryException, IOException {
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        final CompletableFuture<byte[]> running = loading.putIfAbsent(key, future);
+        if (running != null) {
+            try {
+                return running.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for record " + binary.getPath(), e);
+            } catch (final ExecutionException e) {
+                /* the other reader failed, read the content ourselves */
+                try (final InputStream src = binary.getContent()) {
+                    return IOUtils.toByteArray(src);
+                }
+            }
+        }
+        try (final InputStream src = binary.getContent()) {
+            final byte[] content = IOUtils.toByteArray(src);
+            putInMemory(key, content);
+            future.complete(content);
+            return content;
+        } catch (final IOException | RepositoryException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key);
+        }
+    }
+
+    /**
+     * Get a copy of the records kept in memory, least recently used first
+     */
+    Map<String, byte[]> getMemoryEntries() {
+        synchronized (memory) {
+            return new LinkedHashMap<>(memory);
+        }
+    }
+
+    /**
+     * Restore a record cached by a previous run. Records are keyed by content digest, so they can not go stale.
+     */
+    void restore(final String key, final byte[] content) {
+        if (content.length <= maxEntrySize) {
+            putInMemory(key, content);
+        }
+    }
+
+    private byte[] getFromMemory(final String key) {
+        synchronized (memory) {
+            return memory.get(key);
+        }
+    }
+
+    private void putInMemory(final String key, final byte[] content) {
+        final List<Map.Entry<String, byte[]>> evicted = new ArrayList<>();
+        synchronized (memory) {
+            if (memory.put(key, content) == null) {
+                memoryBytes += content.length;
+            }
+            final Iterator<Map.Entry<String, byte[]>> it = memory.entrySet().iterator();
+            while (memoryBytes > maxMemory && it.hasNext()) {
+                final Map.Entry<String, byte[]> eldest = it.next();
+                memoryBytes -= eldest.getValue().length;
+                evicted.add(eldest);
+                it.remove();
+            }
+        }
+        if (spillDirectory != null) {
+            for (final Map.Entry<String, byte[]> entry : evicted) {
+                try {
+                    spill(entry.getKey(), new ByteArrayInputStream(entry.getValue()));
+                } catch (final IOException e) {
+                    log.warn("Unable to spill record {} to {}", entry.getKey(), spillDirectory, e);
+                }
+            }
+        }
+    }
+
+    private InputStream openFromDisk(final String key) throws IOException {
+        if (spillDirectory == null) {
+            return null;
+        }
+        synchronized (disk) {
+            if (disk.get(key) == null) {
+                return null;
+            }
+        }
+        try {
+            return Files.newInputStream(file(key));
+        } catch (final NoSuchFileException e) {
+            /* evicted in the meantime */
+            return null;
+        }
+    }
+
+    private void spill(final String key, final InputStream src) throws IOException {
+        final Path tmp = Files.createTempFile(spillDirectory, key, ".tmp");
+        try {
+            commit(key, tmp, Files.copy(src, tmp, StandardCopyOption.REPLACE_EXISTING));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Move a completely written record into the spill directory, evicting the least recently used records
+     */
+    private void commit(final String key, final Path tmp, final long size) throws IOException {
+        if (size > maxDisk) {
+            return;
+        }
+        Files.move(tmp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        final List<String> evicted = new ArrayList<>();
+        synchronized (disk) {
+            final Long previous = disk.put(key, size);
+            diskBytes += size - (previous == null ? 0 : previous);
+            final Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+            while (diskBytes > maxDisk && it.hasNext()) {
+                final Map.Entry<String, Long> eldest = it.next();
+                diskBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                it.remove();
+            }
+        }
+        for (final String evictedKey : evicted) {
+            Files.deleteIfExists(file(evictedKey));
+        }
+    }
+
+    private Path file(final String key) {
+        return spillDirectory.resolve(key + SUFFIX);
+    }
+
+    /**
+     * Passes a record through to the reader while copying it to the spill directory. The copy is only kept if the
+     * record was read completely.
+     */
+    private class SpillingInputStream extends FilterInputStream {
+
+        private final String key;
+
+        private Path tmp;
+
+        private OutputStream copy;
+
+        private long size;
+
+        private boolean complete;
+
+        SpillingInputStream(final String key, final InputStream src) {
+            super(src);
+            this.key = key;
+            try {
+                this.tmp = Files.createTempFile(spillDirectory, key, ".tmp");
+                this.copy = Files.newOutputStream(tmp);
+            } catch (final IOException e) {
+                log.warn("Unable to spill record {} to {}", key, spillDirectory, e);
+                discard();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b < 0) {
+                complete = true;
+            } else if (copy != null) {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            final int read = super.read(buffer, offset, length);
+            if (read < 0) {
+                complete = true;
+            } else if (copy != null) {
+                write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            /* skipped bytes are not copied, so the copy is incomplete */
+            discard();
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (copy != null) {
+                    try {
+                        copy.close();
+                        if (complete) {
+                            commit(key, tmp, size);
+                        }
+                    } catch (final IOException e) {
+                        log.warn("Unable to spill record {} to {}", key, spillDirectory, e);
+                    }
+                }
+                discard();
+            }
+        }
+
+        private void write(final byte[] buffer, final int offset, final int length) {
+            try {
+                copy.write(buffer, offset, length);
+                size += length;
+            } catch (final IOException e) {
+                log.warn("Unable to spill record {} to {}", key, spillDirectory, e);
+                discard();
+            }
+        }
+
+        private void discard() {
+            if (copy != null) {
+                IOUtils.closeQuietly(copy);
+                copy = null;
+            }
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (final IOException e) {
+                    log.debug("Unable to delete {}", tmp, e);
+                }
+                tmp = null;
+            }
+        }
+    }
+
+    /**
+     * Derive a file name safe key from a digest URI such as urn:sha1:...
+     */
+    private static String key(final URI digest) {
+        return digest.toString().replaceAll("[^A-Za-z0-9]", "_");
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static org.fcrepo.oai.service.OAIProviderService.binaryBytesMeter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.fcrepo.oai.trace.HarvestStage;
+
+/**
+ * Passes the stored record linked from the object by the format's property through to the response
+ *
+ * @author agent
+ */
+public class BinaryGenerator implements MetadataGenerator {
+
+    private static final XMLInputFactory inputFactory = newInputFactory();
+
+    @Override
+    public Set<String> getProperties(final MetadataFormat format) {
+        return Collections.singleton(format.getPropertyName());
+    }
+
+    @Override
+    public boolean isAvailable(final MetadataFormat format, final RecordContext record) {
+        return !record.getValues(format.getPropertyName()).isEmpty();
+    }
+
+    @Override
+    public void generate(final MetadataFormat format, final RecordContext record, final XMLStreamWriter writer)
+            throws XMLStreamException, IOException, RepositoryException {
+        final CountingInputStream counter = new CountingInputStream(record.openRecord(format));
+        try (final HarvestStage stage = record.getTrace().stage(HarvestStage.BINARY_READ);
+                final InputStream src = counter) {
+            final XMLStreamReader reader = inputFactory.createXMLStreamReader(src);
+            try {
+                copy(reader, writer);
+            } finally {
+                reader.close();
+            }
+            stage.bytes(counter.getByteCount());
+        } finally {
+            binaryBytesMeter.mark(counter.getByteCount());
+        }
+    }
+
+    /**
+     * Copy the elements read from a stored record to the writer, leaving out the document's prolog
+     */
+    static void copy(final XMLStreamReader reader, final XMLStreamWriter writer) throws XMLStreamException {
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                writer.writeStartElement(prefix(reader.getPrefix()), reader.getLocalName(),
+                        reader.getNamespaceURI() == null ? "" : reader.getNamespaceURI());
+                for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                    writer.writeNamespace(prefix(reader.getNamespacePrefix(i)), reader.getNamespaceURI(i));
+                }
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    final String ns = reader.getAttributeNamespace(i);
+                    if (ns == null || ns.isEmpty()) {
+                        writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    } else {
+                        writer.writeAttribute(prefix(reader.getAttributePrefix(i)), ns,
+                                reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    }
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                writer.writeEndElement();
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA:
+                writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                break;
+            case XMLStreamConstants.COMMENT:
+                writer.writeComment(reader.getText());
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private static String prefix(final String prefix) {
+        return prefix == null ? "" : prefix;
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
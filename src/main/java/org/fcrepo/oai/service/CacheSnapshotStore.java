@@ -0,0 +1,292 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.NamespaceException;
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.openarchives.oai._2.IdentifyType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Writes the contents of the OAI provider's caches to a local file on shutdown and maps them back on startup, so a
+ * restarted node starts with warm caches. Entries are validated when they are restored: property names against the
+ * namespace registry, Identify responses against the modification time of the sets root, validation verdicts
+ * against the format's schema. Records and verdicts are keyed by content digest and can not go stale otherwise.
+ *
+ * @author agent
+ */
+public class CacheSnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheSnapshotStore.class);
+
+    private static final int MAGIC = 0x4F414943;
+
+    private static final int VERSION = 1;
+
+    private static final QName IDENTIFY = new QName("http://www.openarchives.org/OAI/2.0/", "Identify");
+
+    private Path file;
+
+    private long maxAge = 7L * 24 * 60 * 60 * 1000;
+
+    @Autowired
+    private OAIProviderService providerService;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired(required = false)
+    private RecordValidator recordValidator;
+
+    @Autowired(required = false)
+    private BinaryCache binaryCache;
+
+    /**
+     * Sets the file the caches are written to.
+     *
+     * @param file the file
+     */
+    public void setFile(final String file) {
+        this.file = Paths.get(file);
+    }
+
+    /**
+     * Sets the age in milliseconds after which a snapshot is not restored anymore.
+     *
+     * @param maxAge the maximum age in milliseconds
+     */
+    public void setMaxAge(final long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Restore the caches from the snapshot written by the previous run
+     */
+    @PostConstruct
+    public void init() {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        final Session session = sessionFactory.getInternalSession();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                log.warn("Ignoring cache snapshot {} of an unknown format", file);
+                return;
+            }
+            final long written = buf.getLong();
+            if (written + maxAge < start) {
+                log.info("Ignoring cache snapshot {} written at {}", file, written);
+                return;
+            }
+            restore(buf, session);
+            log.info("Restored OAI caches from {} in {} ms", file, System.currentTimeMillis() - start);
+        } catch (final IOException | RepositoryException | JAXBException | RuntimeException e) {
+            /* a truncated or corrupted snapshot only costs the warm start */
+            log.warn("Unable to restore the OAI caches from {}", file, e);
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Write the caches to the snapshot file
+     */
+    @PreDestroy
+    public void destroy() {
+        final long start = System.currentTimeMillis();
+        final Session session = sessionFactory.getInternalSession();
+        try {
+            final Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            final Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try {
+                try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(tmp)))) {
+                    write(out, session);
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            log.info("Wrote OAI caches to {} in {} ms", file, System.currentTimeMillis() - start);
+        } catch (final IOException | RepositoryException | JAXBException e) {
+            log.warn("Unable to write the OAI caches to {}", file, e);
+        } finally {
+            session.logout();
+        }
+    }
+
+    private void write(final DataOutputStream out, final Session session) throws IOException, RepositoryException,
+            JAXBException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        out.writeLong(providerService.getRootLastModified(session));
+
+        final Map<String, String> propertyNames = new HashMap<>(providerService.getPropertyNames());
+        out.writeInt(propertyNames.size());
+        for (final Map.Entry<String, String> entry : propertyNames.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+
+        final Map<String, IdentifyType> identify = new HashMap<>(providerService.getIdentifyCache());
+        final Marshaller marshaller = OaiJaxbContext.get().createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        out.writeInt(identify.size());
+        for (final Map.Entry<String, IdentifyType> entry : identify.entrySet()) {
+            final StringWriter xml = new StringWriter();
+            marshaller.marshal(new JAXBElement<>(IDENTIFY, IdentifyType.class, entry.getValue()), xml);
+            writeString(out, entry.getKey());
+            writeString(out, xml.toString());
+        }
+
+        out.writeInt(providerService.getMetadataFormats().size());
+        for (final MetadataFormat format : providerService.getMetadataFormats().values()) {
+            writeString(out, format.getPrefix());
+            writeString(out, schemaSource(format));
+        }
+
+        final Map<String, Boolean> verdicts = recordValidator == null ? new HashMap<>()
+                : recordValidator.getVerdicts();
+        out.writeInt(verdicts.size());
+        for (final Map.Entry<String, Boolean> entry : verdicts.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeBoolean(entry.getValue());
+        }
+
+        final Map<String, byte[]> records = binaryCache == null ? new HashMap<>() : binaryCache.getMemoryEntries();
+        out.writeInt(records.size());
+        for (final Map.Entry<String, byte[]> entry : records.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+    }
+
+    private void restore(final ByteBuffer buf, final Session session) throws RepositoryException, JAXBException {
+        final long rootLastModified = buf.getLong();
+
+        final NamespaceRegistry namespaces = session.getWorkspace().getNamespaceRegistry();
+        final Map<String, String> propertyNames = providerService.getPropertyNames();
+        for (int i = buf.getInt(); i > 0; i--) {
+            final String predicate = readString(buf);
+            final String name = readString(buf);
+            final int colon = name.indexOf(':');
+            final String uri = colon > 0 ? namespaceUri(namespaces, name.substring(0, colon)) : null;
+            if (uri != null && predicate.startsWith(uri)) {
+                propertyNames.putIfAbsent(predicate, name);
+            }
+        }
+
+        final boolean rootUnchanged = rootLastModified == providerService.getRootLastModified(session);
+        final Map<String, IdentifyType> identify = providerService.getIdentifyCache();
+        for (int i = buf.getInt(); i > 0; i--) {
+            final String baseUrl = readString(buf);
+            final String xml = readString(buf);
+            if (rootUnchanged) {
+                identify.putIfAbsent(baseUrl, OaiJaxbContext.get().createUnmarshaller()
+                        .unmarshal(new StreamSource(new StringReader(xml)), IdentifyType.class).getValue());
+            }
+        }
+
+        final Map<String, String> schemas = new HashMap<>();
+        for (int i = buf.getInt(); i > 0; i--) {
+            schemas.put(readString(buf), readString(buf));
+        }
+
+        for (int i = buf.getInt(); i > 0; i--) {
+            final String key = readString(buf);
+            final boolean valid = buf.get() != 0;
+            final int space = key.indexOf(' ');
+            final MetadataFormat format = space > 0 ? providerService.getMetadataFormats().get(key.substring(0,
+                    space)) : null;
+            if (recordValidator != null && format != null
+                    && schemaSource(format).equals(schemas.get(format.getPrefix()))) {
+                recordValidator.restoreVerdict(key, valid);
+            }
+        }
+
+        for (int i = buf.getInt(); i > 0; i--) {
+            final String key = readString(buf);
+            final byte[] content = new byte[buf.getInt()];
+            buf.get(content);
+            if (binaryCache != null) {
+                binaryCache.restore(key, content);
+            }
+        }
+    }
+
+    private static String namespaceUri(final NamespaceRegistry namespaces, final String prefix)
+            throws RepositoryException {
+        try {
+            return namespaces.getURI(prefix);
+        } catch (final NamespaceException e) {
+            return null;
+        }
+    }
+
+    private static String schemaSource(final MetadataFormat format) {
+        if (format.getSchemaLocation() != null) {
+            return format.getSchemaLocation().getDescription();
+        }
+        return format.getSchemaUrl() == null ? "" : format.getSchemaUrl();
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buf) {
+        final byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
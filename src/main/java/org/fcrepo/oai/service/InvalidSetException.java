@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import javax.jcr.RepositoryException;
+
+/**
+ * Thrown when a set can not be created because of its own content, as opposed to a failure of the repository
+ *
+ * @author agent
+ */
+class InvalidSetException extends RepositoryException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean conflict;
+
+    /**
+     * Instantiates a new invalid set exception.
+     *
+     * @param message the reason the set is invalid
+     */
+    InvalidSetException(final String message) {
+        this(message, false);
+    }
+
+    /**
+     * Instantiates a new invalid set exception.
+     *
+     * @param message the reason the set is invalid
+     * @param conflict true if the set clashes with an existing set
+     */
+    InvalidSetException(final String message, final boolean conflict) {
+        super(message);
+        this.conflict = conflict;
+    }
+
+    /**
+     * Check whether the set clashes with an existing set, as opposed to being malformed
+     *
+     * @return true if the set already exists
+     */
+    boolean isConflict() {
+        return conflict;
+    }
+}
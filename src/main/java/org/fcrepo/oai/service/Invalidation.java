@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+/**
+ * A change in the repository which makes cached data about an object, a set or the OAI root stale
+ *
+ * @author agent
+ */
+public class Invalidation {
+
+    /**
+     * The kind of node which changed
+     */
+    public enum Scope {
+        /** an object which may be harvested */
+        OBJECT,
+        /** a set below the sets root */
+        SET,
+        /** the sets root holding the repository's description */
+        ROOT
+    }
+
+    private final Scope scope;
+
+    private final String path;
+
+    /**
+     * Create a new invalidation
+     *
+     * @param scope the kind of node which changed
+     * @param path the path of the node
+     */
+    public Invalidation(final Scope scope, final String path) {
+        this.scope = scope;
+        this.path = path;
+    }
+
+    /**
+     * Gets scope.
+     *
+     * @return the scope
+     */
+    public Scope getScope() {
+        return scope;
+    }
+
+    /**
+     * Gets path.
+     *
+     * @return the path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return scope + " " + path;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import java.util.function.Consumer;
+
+/**
+ * Distributes {@link Invalidation}s to the caches of the OAI provider. Implementations decide how invalidations
+ * travel, e.g. within the JVM or between the nodes of a cluster.
+ *
+ * @author agent
+ */
+public interface InvalidationBus {
+
+    /**
+     * Publish an invalidation to all subscribers
+     *
+     * @param invalidation the invalidation
+     */
+    void publish(Invalidation invalidation);
+
+    /**
+     * Subscribe to the invalidations published on this bus
+     *
+     * @param subscriber the subscriber
+     */
+    void subscribe(Consumer<Invalidation> subscriber);
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link InvalidationBus} delivering invalidations to the subscribers in the same JVM on the publishing thread
+ *
+ * @author agent
+ */
+public class LocalInvalidationBus implements InvalidationBus {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalInvalidationBus.class);
+
+    private final List<Consumer<Invalidation>> subscribers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(final Invalidation invalidation) {
+        for (final Consumer<Invalidation> subscriber : subscribers) {
+            try {
+                subscriber.accept(invalidation);
+            } catch (final RuntimeException e) {
+                log.error("Unable to deliver invalidation {}", invalidation, e);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(final Consumer<Invalidation> subscriber) {
+        subscribers.add(subscriber);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+/**
+ * The progress of a bulk set membership update
+ *
+ * @author agent
+ */
+public class MembershipResult {
+
+    private final String setSpec;
+
+    private long processed;
+
+    private long changed;
+
+    private long missing;
+
+    /**
+     * Instantiates a new membership result.
+     *
+     * @param setSpec the set's setSpec
+     */
+    MembershipResult(final String setSpec) {
+        this.setSpec = setSpec;
+    }
+
+    void processed(final boolean wasChanged) {
+        processed++;
+        if (wasChanged) {
+            changed++;
+        }
+    }
+
+    void missing() {
+        processed++;
+        missing++;
+    }
+
+    /**
+     * Gets set spec.
+     *
+     * @return the set spec
+     */
+    public String getSetSpec() {
+        return setSpec;
+    }
+
+    /**
+     * Gets the number of identifiers processed so far.
+     *
+     * @return the number of processed identifiers
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Gets the number of objects whose membership has been changed.
+     *
+     * @return the number of changed objects
+     */
+    public long getChanged() {
+        return changed;
+    }
+
+    /**
+     * Gets the number of identifiers which do not resolve to an object.
+     *
+     * @return the number of missing objects
+     */
+    public long getMissing() {
+        return missing;
+    }
+
+    @Override
+    public String toString() {
+        return setSpec + " processed=" + processed + " changed=" + changed + " missing=" + missing;
+    }
+}
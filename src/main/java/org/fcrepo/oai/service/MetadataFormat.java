@@ -15,8 +15,21 @@
  */
 package org.fcrepo.oai.service;
 
+import java.io.IOException;
+import java.net.URL;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
 import org.openarchives.oai._2.MetadataFormatType;
 import org.openarchives.oai._2.ObjectFactory;
+import org.springframework.core.io.Resource;
+import org.xml.sax.SAXException;
 
 /**
  * Metadata form Representation for OAI Provider
@@ -25,6 +38,9 @@ import org.openarchives.oai._2.ObjectFactory;
  */
 public class MetadataFormat {
 
+    /* the time in milliseconds before compiling a schema which failed is attempted again */
+    private static final long SCHEMA_RETRY_DELAY = 15 * 60 * 1000;
+
     private String prefix;
 
     private String schemaUrl;
@@ -33,6 +49,24 @@ public class MetadataFormat {
 
     private String propertyName;
 
+    private String sourceFormat;
+
+    private Resource stylesheet;
+
+    private volatile Templates templates;
+
+    private Resource schemaLocation;
+
+    private volatile Schema schema;
+
+    private volatile IOException schemaError;
+
+    private volatile long schemaErrorAt;
+
+    private MetadataGenerator generator;
+
+    private MetadataFormat source;
+
     /**
      * Get the property name used for the metadata format
      *
@@ -69,6 +103,119 @@ public class MetadataFormat {
         return namespace;
     }
 
+    /**
+     * Get the prefix of the stored format this format is derived from
+     *
+     * @return the source format's prefix or null if the records of this format are stored or generated
+     */
+    public String getSourceFormat() {
+        return sourceFormat;
+    }
+
+    /**
+     * Get the stored format this format is derived from, as resolved by the service on startup
+     *
+     * @return the source format or null if this format is not a crosswalk
+     */
+    public MetadataFormat getSource() {
+        return source;
+    }
+
+    void setSource(final MetadataFormat source) {
+        this.source = source;
+    }
+
+    /**
+     * Get the generator producing the records of this format
+     *
+     * @return the generator
+     */
+    public MetadataGenerator getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Check whether the records of this format are derived from another format by a stylesheet
+     *
+     * @return true if this format is a crosswalk
+     */
+    public boolean isCrosswalk() {
+        return sourceFormat != null && stylesheet != null;
+    }
+
+    /**
+     * Get the stylesheet transforming the source format into this format. The stylesheet is compiled on first use
+     * and the compiled templates are shared by all transformations.
+     *
+     * @return the compiled stylesheet
+     * @throws TransformerConfigurationException if the stylesheet can not be compiled
+     * @throws IOException if the stylesheet can not be read
+     */
+    public Templates getTemplates() throws TransformerConfigurationException, IOException {
+        if (templates == null) {
+            synchronized (this) {
+                if (templates == null) {
+                    /* the stylesheet is trusted configuration and may include other stylesheets */
+                    final TransformerFactory factory = TransformerFactory.newInstance();
+                    final StreamSource src = new StreamSource(stylesheet.getInputStream(),
+                            stylesheet.getURL().toExternalForm());
+                    templates = factory.newTemplates(src);
+                }
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * Get the bundled copy of this format's XML schema
+     *
+     * @return the schema resource or null if the schema is read from the schema url
+     */
+    public Resource getSchemaLocation() {
+        return schemaLocation;
+    }
+
+    /**
+     * Get this format's XML schema. The schema is compiled on first use from the bundled copy if there is one,
+     * otherwise from the schema url. A failure is remembered, so the schema is not fetched and compiled again for
+     * every record while e.g. the schema url can not be reached.
+     *
+     * @return the compiled schema
+     * @throws IOException if the schema can not be read or compiled
+     */
+    public Schema getSchema() throws IOException {
+        if (schema == null) {
+            synchronized (this) {
+                if (schema == null) {
+                    if (schemaError != null && System.currentTimeMillis() - schemaErrorAt < SCHEMA_RETRY_DELAY) {
+                        throw schemaError;
+                    }
+                    final SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                    try {
+                        schema = schemaLocation != null ? factory.newSchema(schemaLocation.getURL())
+                                : factory.newSchema(new URL(schemaUrl));
+                        schemaError = null;
+                    } catch (final SAXException | IOException e) {
+                        schemaError = new IOException("Unable to compile the schema of " + prefix, e);
+                        schemaErrorAt = System.currentTimeMillis();
+                        throw schemaError;
+                    }
+                }
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Check whether compiling this format's schema failed recently
+     *
+     * @return true if the schema is currently unavailable
+     */
+    public boolean isSchemaUnavailable() {
+        return schema == null && schemaError != null
+                && System.currentTimeMillis() - schemaErrorAt < SCHEMA_RETRY_DELAY;
+    }
+
     /**
      * Get the metadata format as a OAI schema compliant type used by JAX-B for serialization
      *
@@ -100,6 +247,8 @@ public class MetadataFormat {
      */
     public void setSchemaUrl(final String schemaUrl) {
         this.schemaUrl = schemaUrl;
+        this.schema = null;
+        this.schemaError = null;
     }
 
     /**
@@ -119,4 +268,44 @@ public class MetadataFormat {
     public void setPropertyName(final String propertyName) {
         this.propertyName = propertyName;
     }
+
+    /**
+     * Sets the prefix of the stored format this format is derived from.
+     *
+     * @param sourceFormat the source format's prefix
+     */
+    public void setSourceFormat(final String sourceFormat) {
+        this.sourceFormat = sourceFormat;
+    }
+
+    /**
+     * Sets the stylesheet transforming the source format into this format.
+     *
+     * @param stylesheet the stylesheet
+     */
+    public void setStylesheet(final Resource stylesheet) {
+        this.stylesheet = stylesheet;
+        this.templates = null;
+    }
+
+    /**
+     * Sets the generator producing the records of this format. Formats without a generator pass the linked
+     * binary through, or transform the source format's binary if a stylesheet is set.
+     *
+     * @param generator the generator
+     */
+    public void setGenerator(final MetadataGenerator generator) {
+        this.generator = generator;
+    }
+
+    /**
+     * Sets the bundled copy of this format's XML schema.
+     *
+     * @param schemaLocation the schema resource
+     */
+    public void setSchemaLocation(final Resource schemaLocation) {
+        this.schemaLocation = schemaLocation;
+        this.schema = null;
+        this.schemaError = null;
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import java.io.IOException;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Generates the records of a metadata format. Generators are referenced by the {@link MetadataFormat} beans in
+ * oai.xml and may be shared by several formats.
+ *
+ * @author agent
+ */
+public interface MetadataGenerator {
+
+    /**
+     * Get the RDF properties of an object this generator reads. The service collects the values of these
+     * properties in a single pass over the object's triples before the generator is invoked.
+     *
+     * @param format the metadata format
+     * @return the URIs of the properties or null if the generator reads all properties
+     */
+    Set<String> getProperties(MetadataFormat format);
+
+    /**
+     * Check whether a record of the given format can be generated for an object
+     *
+     * @param format the metadata format
+     * @param record the object the record is generated for
+     * @return true if a record is available
+     */
+    boolean isAvailable(MetadataFormat format, RecordContext record);
+
+    /**
+     * Write the record's metadata element
+     *
+     * @param format the metadata format
+     * @param record the object the record is generated for
+     * @param writer the writer the metadata is written to
+     * @throws XMLStreamException if the metadata can not be written
+     * @throws IOException if a stored record can not be read
+     * @throws RepositoryException if the object can not be read
+     */
+    void generate(MetadataFormat format, RecordContext record, XMLStreamWriter writer) throws XMLStreamException,
+            IOException, RepositoryException;
+}
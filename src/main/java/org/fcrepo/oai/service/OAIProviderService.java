@@ -15,40 +15,70 @@
  */
 package org.fcrepo.oai.service;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptyMap;
+import static com.codahale.metrics.MetricRegistry.name;
 import static com.hp.hpl.jena.rdf.model.ResourceFactory.createProperty;
+import static org.fcrepo.metrics.RegistryService.getInstance;
 import static org.fcrepo.kernel.modeshape.rdf.converters.PropertyConverter.getPropertyNameFromPredicate;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.Value;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
 import javax.jcr.query.Row;
 import javax.jcr.query.RowIterator;
+import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.stream.StreamSource;
 
-import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.fcrepo.http.api.FedoraLdp;
 import org.fcrepo.http.api.FedoraNodes;
@@ -69,7 +99,8 @@ import org.fcrepo.kernel.api.utils.iterators.RdfStream;
 import org.fcrepo.oai.dublincore.JcrPropertiesGenerator;
 import org.fcrepo.oai.rdf.PropertyPredicate;
 import org.fcrepo.oai.http.ResumptionToken;
-import org.fcrepo.oai.jersey.XmlDeclarationStrippingInputStream;
+import org.fcrepo.oai.trace.HarvestStage;
+import org.fcrepo.oai.trace.HarvestTrace;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
@@ -92,11 +123,18 @@ import org.openarchives.oai._2.RecordType;
 import org.openarchives.oai._2.RequestType;
 import org.openarchives.oai._2.SetType;
 import org.openarchives.oai._2.VerbType;
-import org.openarchives.oai._2_0.oai_dc.OaiDcType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.Resource;
 
@@ -112,9 +150,48 @@ public class OAIProviderService {
 
     private static final ObjectFactory oaiFactory = new ObjectFactory();
 
+    private static final Pattern SET_SPEC_PATTERN =
+            Pattern.compile("[A-Za-z0-9\\-_\\.!~\\*'\\(\\)]+(:[A-Za-z0-9\\-_\\.!~\\*'\\(\\)]+)*");
+
+    /**
+     * Selects the metrics published by the OAI provider from Fedora's shared registry
+     */
+    public static final MetricFilter OAI_METRICS = (name, metric) -> name.startsWith("org.fcrepo.oai.");
+
+    static final MetricRegistry metrics = getInstance().getMetrics();
+
+    static final Timer queryTimer = metrics.timer(name(OAIProviderService.class, "query-time"));
+
+    static final Timer recordTimer = metrics.timer(name(OAIProviderService.class, "record-assembly-time"));
+
+    static final Meter binaryBytesMeter = metrics.meter(name(OAIProviderService.class, "binary-bytes-streamed"));
+
+    static final Meter cacheHitMeter = metrics.meter(name(OAIProviderService.class, "cache-hits"));
+
+    static final Meter cacheMissMeter = metrics.meter(name(OAIProviderService.class, "cache-misses"));
+
+    static final Timer startupTimer = metrics.timer(name(OAIProviderService.class, "startup-time"));
+
+    private volatile boolean ready;
+
+    private JmxReporter jmxReporter;
+
+    private boolean metricsJmxEnabled;
+
+    private boolean provisionIndexes = true;
+
+    private boolean readUnrestricted;
+
+    private String indexProvider;
+
+    private QueryIndexes queryIndexes;
+
     private final DatatypeFactory dataFactory;
 
-    private final Unmarshaller unmarshaller;
+    private static final QName SET_DESCRIPTION = new QName("http://www.openarchives.org/OAI/2.0/", "setDescription");
+
+    /* the maximum number of rows fetched per query while scanning for the objects of a partition */
+    private static final int MAX_PARTITION_BATCH_SIZE = 10000;
 
     private String setsRootPath;
 
@@ -124,8 +201,14 @@ public class OAIProviderService {
 
     private String propertyHasSetSpec;
 
+    private String propertySetDescription;
+
     private String propertyIsPartOfSet;
 
+    private String propertyVisibility;
+
+    private String visibilityPublic = "public";
+
     private String propertyOaiRepositoryName;
 
     private String propertyOaiDescription;
@@ -146,6 +229,14 @@ public class OAIProviderService {
 
     private int maxListSize;
 
+    private int membershipBatchSize = 1000;
+
+    private String resumptionTokenKey;
+
+    private long resumptionTokenTtl;
+
+    private ResumptionTokenCodec tokenCodec;
+
     @Autowired
     private BinaryService binaryService;
 
@@ -164,6 +255,33 @@ public class OAIProviderService {
     @Autowired
     private JcrPropertiesGenerator jcrPropertiesGenerator;
 
+    @Autowired(required = false)
+    private PagePrefetcher pagePrefetcher;
+
+    @Autowired(required = false)
+    private RecordValidator recordValidator;
+
+    @Autowired(required = false)
+    private BinaryCache binaryCache;
+
+    @Autowired(required = false)
+    private InvalidationBus invalidationBus;
+
+    @Autowired(required = false)
+    private SessionPool sessionPool;
+
+    /* Identify responses by base url, only kept while an invalidation bus reports changes of the sets root */
+    private final Map<String, IdentifyType> identifyCache = new ConcurrentHashMap<>();
+
+    /* JCR property names by predicate URI */
+    private final Map<String, String> propertyNames = new ConcurrentHashMap<>();
+
+    private final MetadataGenerator binaryGenerator = new BinaryGenerator();
+
+    private final MetadataGenerator xsltGenerator = new XsltGenerator();
+
+    private final XMLOutputFactory outputFactory = newOutputFactory();
+
     /**
      * Sets property has set spec.
      *
@@ -173,6 +291,15 @@ public class OAIProviderService {
         this.propertyHasSetSpec = propertyHasSetSpec;
     }
 
+    /**
+     * Sets the property the serialized set descriptions are stored in.
+     *
+     * @param propertySetDescription the property set description
+     */
+    public void setPropertySetDescription(final String propertySetDescription) {
+        this.propertySetDescription = propertySetDescription;
+    }
+
     /**
      * Sets property set name.
      *
@@ -200,6 +327,36 @@ public class OAIProviderService {
         this.maxListSize = maxListSize;
     }
 
+    /**
+     * Sets the key resumption tokens are signed with. All nodes of a cluster have to share the key in order to
+     * resume each other's harvests. If no key is set a random key is used, so tokens are only valid on this node
+     * until it is restarted.
+     *
+     * @param resumptionTokenKey the key
+     */
+    public void setResumptionTokenKey(final String resumptionTokenKey) {
+        this.resumptionTokenKey = resumptionTokenKey;
+    }
+
+    /**
+     * Sets the time in milliseconds after the start of a harvest its resumption tokens expire, 0 if they never
+     * expire.
+     *
+     * @param resumptionTokenTtl the time to live in milliseconds
+     */
+    public void setResumptionTokenTtl(final long resumptionTokenTtl) {
+        this.resumptionTokenTtl = resumptionTokenTtl;
+    }
+
+    /**
+     * Sets the number of objects saved together when updating set memberships in bulk.
+     *
+     * @param membershipBatchSize the membership batch size
+     */
+    public void setMembershipBatchSize(final int membershipBatchSize) {
+        this.membershipBatchSize = membershipBatchSize;
+    }
+
     /**
      * Sets property is part of set.
      *
@@ -209,6 +366,24 @@ public class OAIProviderService {
         this.propertyIsPartOfSet = propertyIsPartOfSet;
     }
 
+    /**
+     * Sets the property marking objects visible to anonymous harvesters served by the session pool.
+     *
+     * @param propertyVisibility the visibility property
+     */
+    public void setPropertyVisibility(final String propertyVisibility) {
+        this.propertyVisibility = propertyVisibility;
+    }
+
+    /**
+     * Sets the value of the visibility property marking an object as public.
+     *
+     * @param visibilityPublic the public value
+     */
+    public void setVisibilityPublic(final String visibilityPublic) {
+        this.visibilityPublic = visibilityPublic;
+    }
+
     /**
      * Set propertyOaiRepositoryName
      * @param propertyOaiRepositoryName the oai repository name
@@ -287,37 +462,262 @@ public class OAIProviderService {
     }
 
     /**
-     * Service intitialization
+     * Sets whether the provider's metrics are published over JMX.
+     *
+     * @param metricsJmxEnabled true to register the metrics with the platform MBean server
+     */
+    public void setMetricsJmxEnabled(final boolean metricsJmxEnabled) {
+        this.metricsJmxEnabled = metricsJmxEnabled;
+    }
+
+    /**
+     * Sets whether every session may read all OAI exposed objects, as on deployments without an authorization
+     * delegate. Prefetched pages and snapshots are assembled with an internal session, so they are otherwise only
+     * served to administrators.
+     *
+     * @param readUnrestricted true if no object is hidden from any session
+     */
+    public void setReadUnrestricted(final boolean readUnrestricted) {
+        this.readUnrestricted = readUnrestricted;
+    }
+
+    /**
+     * Check whether every session may read all OAI exposed objects
+     *
+     * @return true if no object is hidden from any session
+     */
+    public boolean isReadUnrestricted() {
+        return readUnrestricted;
+    }
+
+    /**
+     * Sets whether the index definitions backing the list queries are registered on startup.
+     *
+     * @param provisionIndexes true to register missing index definitions
+     */
+    public void setProvisionIndexes(final boolean provisionIndexes) {
+        this.provisionIndexes = provisionIndexes;
+    }
+
+    /**
+     * Sets the ModeShape index provider the index definitions are registered with. The first provider configured
+     * in the repository is used if it is not set.
+     *
+     * @param indexProvider the index provider's name
+     */
+    public void setIndexProvider(final String indexProvider) {
+        this.indexProvider = indexProvider;
+    }
+
+    /**
+     * Service intitialization. The JAXB context is loaded and the stylesheets and schemas are compiled in the
+     * background while the repository is being prepared, {@link #isReady()} reports when this has finished.
      *
      * @throws RepositoryException the repository exception
      */
     @PostConstruct
     public void init() throws RepositoryException {
+        final long start = System.currentTimeMillis();
+        if (resumptionTokenKey == null || resumptionTokenKey.isEmpty()) {
+            log.warn("No resumptionTokenKey configured, resumption tokens are only valid on this node until it " +
+                    "is restarted");
+            final byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            this.tokenCodec = new ResumptionTokenCodec(key, resumptionTokenTtl);
+        } else {
+            this.tokenCodec = new ResumptionTokenCodec(resumptionTokenKey.getBytes(UTF_8), resumptionTokenTtl);
+        }
+
+        if (invalidationBus != null) {
+            invalidationBus.subscribe(this::invalidate);
+        }
+
+        if (sessionPool != null && propertyVisibility == null) {
+            log.warn("A session pool is configured without a propertyVisibility, anonymous harvesters can read all " +
+                    "OAI exposed objects");
+        }
+
+        for (final MetadataFormat format : metadataFormats.values()) {
+            if (format.isCrosswalk()) {
+                final MetadataFormat source = metadataFormats.get(format.getSourceFormat());
+                if (source == null || source.isCrosswalk()) {
+                    throw new IllegalStateException("The source format " + format.getSourceFormat() + " of "
+                            + format.getPrefix() + " has to be a stored metadata format");
+                }
+                format.setSource(source);
+            }
+            if (format.getGenerator() == null) {
+                format.setGenerator(defaultGenerator(format));
+            }
+        }
+
+        final CompletableFuture<Void> warmUp = CompletableFuture.runAsync(this::warmUp);
+
         /* check if set root node exists */
         final Session session = sessionFactory.getInternalSession();
+        try {
+            final NamespaceRegistry namespaceRegistry =
+                    (org.modeshape.jcr.api.NamespaceRegistry) session.getWorkspace().getNamespaceRegistry();
+            // Register the oai namespace if it's not found
+            if (!namespaceRegistry.isRegisteredPrefix("oai")) {
+                namespaceRegistry.registerNamespace("oai", oaiNamespace);
+            }
 
-        final NamespaceRegistry namespaceRegistry =
-                (org.modeshape.jcr.api.NamespaceRegistry) session.getWorkspace().getNamespaceRegistry();
-        // Register the oai namespace if it's not found
-        if (!namespaceRegistry.isRegisteredPrefix("oai")) {
-            namespaceRegistry.registerNamespace("oai", oaiNamespace);
+            if (!this.nodeService.exists(session, setsRootPath)) {
+
+                log.info("Initializing OAI root {} ...", setsRootPath);
+
+                final Container root = this.containerService.findOrCreate(session, setsRootPath);
+                session.save();
+
+                final String repositoryName = descriptiveContent.get("repositoryName");
+                final String description = descriptiveContent.get("description");
+                final String adminEmail = descriptiveContent.get("adminEmail");
+                root.getNode().setProperty(getPropertyName(session,
+                        createProperty(propertyOaiRepositoryName)), repositoryName);
+                root.getNode().setProperty(getPropertyName(session, createProperty(propertyOaiDescription)),
+                        description);
+                root.getNode().setProperty(getPropertyName(session, createProperty(propertyOaiAdminEmail)),
+                        adminEmail);
+                session.save();
+            }
+
+            this.queryIndexes = defineQueryIndexes(session);
+            if (provisionIndexes) {
+                try {
+                    queryIndexes.provision(session, indexProvider);
+                } catch (final RepositoryException e) {
+                    log.warn("Unable to provision the indexes of the OAI list queries", e);
+                }
+            }
+            logQueryPlan(session);
+        } finally {
+            session.logout();
         }
 
-        if (!this.nodeService.exists(session, setsRootPath)) {
+        final String cacheRatioName = name(OAIProviderService.class, "cache-hit-ratio");
+        metrics.remove(cacheRatioName);
+        metrics.register(cacheRatioName, new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(cacheHitMeter.getCount(), cacheHitMeter.getCount() + cacheMissMeter.getCount());
+            }
+        });
 
-            log.info("Initializing OAI root {} ...", setsRootPath);
+        if (metricsJmxEnabled) {
+            jmxReporter = JmxReporter.forRegistry(metrics).inDomain("org.fcrepo.oai").filter(OAI_METRICS).build();
+            jmxReporter.start();
+        }
+        log.info("Initialized OAI provider in {} ms", System.currentTimeMillis() - start);
 
-            final Container root = this.containerService.findOrCreate(session, setsRootPath);
-            session.save();
+        warmUp.whenComplete((v, e) -> {
+            if (e != null) {
+                log.warn("Unable to warm up the OAI provider, resources are loaded on first use", e);
+            }
+            final long startup = System.currentTimeMillis() - start;
+            startupTimer.update(startup, TimeUnit.MILLISECONDS);
+            this.ready = true;
+            log.info("OAI provider ready after {} ms", startup);
+        });
+    }
 
-            final String repositoryName = descriptiveContent.get("repositoryName");
-            final String description = descriptiveContent.get("description");
-            final String adminEmail = descriptiveContent.get("adminEmail");
-            root.getNode().setProperty(getPropertyName(session,
-                    createProperty(propertyOaiRepositoryName)), repositoryName);
-            root.getNode().setProperty(getPropertyName(session, createProperty(propertyOaiDescription)), description);
-            root.getNode().setProperty(getPropertyName(session, createProperty(propertyOaiAdminEmail)), adminEmail);
-            session.save();
+    /**
+     * Define the indexes backing the constraints of {@link #listResourceQuery}: the mixin type, the datestamp range
+     * combined with the mixin type, the set membership, the links to the stored records of each format and, if
+     * harvests are restricted, the visibility
+     */
+    private QueryIndexes defineQueryIndexes(final Session session) throws RepositoryException {
+        final String propHasMixinType = getPropertyName(session, RdfLexicon.HAS_MIXIN_TYPE);
+        final String propLastModified = getPropertyName(session, RdfLexicon.LAST_MODIFIED_DATE);
+        final QueryIndexes indexes = new QueryIndexes(FedoraTypes.FEDORA_RESOURCE);
+        indexes.add("oaiMixinTypes", columns(propHasMixinType, PropertyType.NAME));
+        final Map<String, Integer> datestamp = columns(propHasMixinType, PropertyType.NAME);
+        datestamp.put(propLastModified, PropertyType.DATE);
+        indexes.add("oaiDatestamp", datestamp, "oaiLastModified", columns(propLastModified, PropertyType.DATE));
+        indexes.add("oaiSetMembership",
+                columns(getPropertyName(session, createProperty(propertyIsPartOfSet)), PropertyType.STRING));
+        for (final MetadataFormat mdf : metadataFormats.values()) {
+            final String linkProperty = getLinkProperty(mdf);
+            if (linkProperty != null && !mdf.isCrosswalk()) {
+                indexes.add("oaiRecord_" + mdf.getPrefix(),
+                        columns(getPropertyName(session, createProperty(linkProperty)), PropertyType.STRING));
+            }
+        }
+        if (propertyVisibility != null) {
+            indexes.add("oaiVisibility",
+                    columns(getPropertyName(session, createProperty(propertyVisibility)), PropertyType.STRING));
+        }
+        return indexes;
+    }
+
+    private static Map<String, Integer> columns(final String propertyName, final int type) {
+        final Map<String, Integer> columns = new LinkedHashMap<>();
+        columns.put(propertyName, type);
+        return columns;
+    }
+
+    /**
+     * Log the plan of a list query using all constraints, warning if it is not backed by one of the indexes
+     */
+    private void logQueryPlan(final Session session) {
+        try {
+            final String jql = listResourceQuery(session, FedoraTypes.FEDORA_CONTAINER, null,
+                    dateFormat.print(0), null, "set", maxListSize, null);
+            final String plan = QueryIndexes.explain(session.getWorkspace().getQueryManager(), jql);
+            if (plan == null) {
+                return;
+            }
+            if (!queryIndexes.getUsedIndexes(plan).isEmpty()) {
+                log.info("Plan of the OAI list query {}:\n{}", jql, plan);
+            } else {
+                log.warn("The OAI list query {} is not backed by an index, list requests scan all nodes:\n{}", jql,
+                        plan);
+            }
+        } catch (final RepositoryException e) {
+            log.warn("Unable to explain the OAI list query", e);
+        }
+    }
+
+    /**
+     * Load the shared JAXB context and compile the crosswalk stylesheets and, if records are validated, the schemas
+     * of the stored formats
+     */
+    private void warmUp() {
+        try {
+            OaiJaxbContext.get();
+        } catch (final JAXBException e) {
+            throw new IllegalStateException(e);
+        }
+        for (final MetadataFormat format : metadataFormats.values()) {
+            try {
+                if (format.isCrosswalk()) {
+                    format.getTemplates();
+                }
+                if (recordValidator != null && format.getGenerator() instanceof BinaryGenerator) {
+                    format.getSchema();
+                }
+            } catch (final TransformerConfigurationException | IOException e) {
+                log.warn("Unable to compile the resources of format {}", format.getPrefix(), e);
+            }
+        }
+    }
+
+    /**
+     * Check whether the provider has finished warming up
+     *
+     * @return true if the JAXB context is loaded and the stylesheets and schemas are compiled
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Service shutdown
+     */
+    @PreDestroy
+    public void destroy() {
+        if (jmxReporter != null) {
+            jmxReporter.stop();
         }
     }
 
@@ -325,12 +725,15 @@ public class OAIProviderService {
      * Instantiates a new OAI provider service.
      *
      * @throws DatatypeConfigurationException the datatype configuration exception
-     * @throws JAXBException the jAXB exception
      */
-    public OAIProviderService() throws DatatypeConfigurationException, JAXBException {
+    public OAIProviderService() throws DatatypeConfigurationException {
         this.dataFactory = DatatypeFactory.newInstance();
-        final JAXBContext ctx = JAXBContext.newInstance(OAIPMHtype.class, IdentifyType.class, SetType.class);
-        this.unmarshaller = ctx.createUnmarshaller();
+    }
+
+    private static XMLOutputFactory newOutputFactory() {
+        final XMLOutputFactory factory = XMLOutputFactory.newInstance();
+        factory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+        return factory;
     }
 
     /**
@@ -344,14 +747,47 @@ public class OAIProviderService {
      */
     public JAXBElement<OAIPMHtype> identify(final Session session, final UriInfo uriInfo) throws RepositoryException,
             JAXBException {
-        final HttpResourceConverter converter = new HttpResourceConverter(session, uriInfo.getBaseUriBuilder()
-                .clone().path(FedoraNodes.class));
+        final IdentifyType id = createIdentify(session, uriInfo.getBaseUriBuilder());
+
+        final RequestType req = oaiFactory.createRequestType();
+        req.setVerb(VerbType.IDENTIFY);
+        req.setValue(uriInfo.getRequestUri().toASCIIString());
+
+        final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
+        oai.setIdentify(id);
+        oai.setResponseDate(dataFactory.newXMLGregorianCalendar(new GregorianCalendar()));
+        oai.setRequest(req);
+        return oaiFactory.createOAIPMH(oai);
+    }
+
+    IdentifyType createIdentify(final Session session, final UriBuilder baseUri) throws RepositoryException {
+        if (invalidationBus == null) {
+            return readIdentify(session, baseUri);
+        }
+        final String baseUrl = baseUri.build().toASCIIString();
+        IdentifyType id = identifyCache.get(baseUrl);
+        if (id == null) {
+            id = readIdentify(session, baseUri);
+            identifyCache.put(baseUrl, id);
+        }
+        return id;
+    }
+
+    private void invalidate(final Invalidation invalidation) {
+        if (invalidation.getScope() == Invalidation.Scope.ROOT) {
+            identifyCache.clear();
+        }
+    }
+
+    private IdentifyType readIdentify(final Session session, final UriBuilder baseUri) throws RepositoryException {
+        final HttpResourceConverter converter = new HttpResourceConverter(session, baseUri.clone()
+                .path(FedoraNodes.class));
 
         final FedoraResource root = this.nodeService.find(session, setsRootPath);
 
         final IdentifyType id = oaiFactory.createIdentifyType();
         // TODO: Need real values here from the root node?
-        id.setBaseURL(uriInfo.getBaseUri().toASCIIString());
+        id.setBaseURL(baseUri.build().toASCIIString());
 
         id.setEarliestDatestamp(dateFormat.print(root.getCreatedDate().getTime()));
 
@@ -375,16 +811,7 @@ public class OAIProviderService {
         desc.setAny(new JAXBElement<String>(new QName("general"), String.class, description));
 
         id.getDescription().add(0, desc);
-
-        final RequestType req = oaiFactory.createRequestType();
-        req.setVerb(VerbType.IDENTIFY);
-        req.setValue(uriInfo.getRequestUri().toASCIIString());
-
-        final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
-        oai.setIdentify(id);
-        oai.setResponseDate(dataFactory.newXMLGregorianCalendar(new GregorianCalendar()));
-        oai.setRequest(req);
-        return oaiFactory.createOAIPMH(oai);
+        return id;
     }
 
     /**
@@ -408,21 +835,18 @@ public class OAIProviderService {
             final String path = "/" + identifier;
             if (path != null && !path.isEmpty()) {
                 /* generate metadata format response for a single pid */
-                if (!this.nodeService.exists(session, path)) {
+                if (!this.nodeService.exists(session, path) || !isVisible(session, path)) {
                     return error(VerbType.LIST_METADATA_FORMATS, identifier, null,
                             OAIPMHerrorcodeType.ID_DOES_NOT_EXIST,
                             "The object does not exist");
                 }
                 final Container obj = this.containerService.findOrCreate(session, "/" + identifier);
+                final RecordContext record = new RecordContext(session, obj, converter,
+                        new HarvestTrace(VerbType.LIST_METADATA_FORMATS, null, 0), binaryService,
+                        binaryCache, getGeneratorProperties());
                 for (final MetadataFormat mdf : metadataFormats.values()) {
-                    if (mdf.getPrefix().equals("oai_dc")) {
+                    if (mdf.getGenerator().isAvailable(mdf, record)) {
                         listMetadataFormats.getMetadataFormat().add(mdf.asMetadataFormatType());
-                    } else {
-                        final RdfStream triples = obj.getTriples(converter, PropertiesRdfContext.class).filter(
-                                new PropertyPredicate(mdf.getPropertyName()));
-                        if (triples.hasNext()) {
-                            listMetadataFormats.getMetadataFormat().add(mdf.asMetadataFormatType());
-                        }
                     }
                 }
             }
@@ -441,7 +865,24 @@ public class OAIProviderService {
         return oaiFactory.createOAIPMH(oai);
     }
 
-    private List<MetadataFormatType> listAvailableMetadataFormats() {
+    /**
+     * Get the properties read by the generators of all formats
+     *
+     * @return the property URIs or null if a generator reads all properties
+     */
+    private Set<String> getGeneratorProperties() {
+        final Set<String> properties = new HashSet<>();
+        for (final MetadataFormat mdf : metadataFormats.values()) {
+            final Set<String> required = mdf.getGenerator().getProperties(mdf);
+            if (required == null) {
+                return null;
+            }
+            properties.addAll(required);
+        }
+        return properties;
+    }
+
+    List<MetadataFormatType> listAvailableMetadataFormats() {
         final List<MetadataFormatType> types = new ArrayList<>(metadataFormats.size());
         for (final MetadataFormat mdf : metadataFormats.values()) {
             final MetadataFormatType mdft = oaiFactory.createMetadataFormatType();
@@ -472,7 +913,7 @@ public class OAIProviderService {
         }
 
         final String path = "/" + identifier;
-        if (!this.nodeService.exists(session, path)) {
+        if (!this.nodeService.exists(session, path) || !isVisible(session, path)) {
             return error(VerbType.GET_RECORD, identifier, metadataPrefix, OAIPMHerrorcodeType.ID_DOES_NOT_EXIST,
                     "The requested identifier does not exist");
         }
@@ -487,10 +928,18 @@ public class OAIProviderService {
         req.setMetadataPrefix("oai_dc");
         oai.setRequest(req);
 
+        final HttpResourceConverter converter = new HttpResourceConverter(session, uriInfo.getBaseUriBuilder()
+                .clone().path(FedoraNodes.class));
         final GetRecordType getRecord = oaiFactory.createGetRecordType();
         final RecordType record;
         try {
-            record = this.createRecord(session, format, obj.getPath(), uriInfo);
+            record = this.createRecord(session, format, obj.getPath(), converter,
+                    new HarvestTrace(VerbType.GET_RECORD, metadataPrefix, 0));
+            if (record == null) {
+                return error(VerbType.GET_RECORD, identifier, metadataPrefix,
+                        OAIPMHerrorcodeType.CANNOT_DISSEMINATE_FORMAT,
+                        "The record does not validate against the schema of " + metadataPrefix);
+            }
             getRecord.setRecord(record);
             oai.setGetRecord(getRecord);
             return this.oaiFactory.createOAIPMH(oai);
@@ -501,32 +950,72 @@ public class OAIProviderService {
         }
     }
 
-    private JAXBElement<OaiDcType> generateOaiDc(final Session session, final Container obj,
-            final UriInfo uriInfo) throws RepositoryException {
-
-        return jcrPropertiesGenerator.generateDC(session, obj, uriInfo);
+    /**
+     * Check whether the session is a pooled internal session restricted to public objects
+     */
+    private boolean isRestricted(final Session session) {
+        return sessionPool != null && propertyVisibility != null && sessionPool.isPooled(session);
     }
 
-    private JAXBElement<String> fetchOaiResponse(final Container obj, final Session session,
-            final MetadataFormat format, final UriInfo uriInfo) throws RepositoryException, IOException {
+    /**
+     * Check whether an object may be read by the session, objects are hidden from pooled sessions unless their
+     * visibility property is public
+     */
+    private boolean isVisible(final Session session, final String path) throws RepositoryException {
+        if (!isRestricted(session)) {
+            return true;
+        }
+        final String name = getPropertyName(session, createProperty(propertyVisibility));
+        final Node node = session.getNode(path);
+        if (!node.hasProperty(name)) {
+            return false;
+        }
+        final javax.jcr.Property property = node.getProperty(name);
+        final Value[] values = property.isMultiple() ? property.getValues() : new Value[] { property.getValue() };
+        for (final Value value : values) {
+            if (visibilityPublic.equals(value.getString())) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        final HttpResourceConverter converter = new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone()
-                .path(FedoraNodes.class));
-        final RdfStream triples = obj.getTriples(converter, PropertiesRdfContext.class).filter(
-                new PropertyPredicate(format.getPropertyName()));
+    /**
+     * Get the generator used for a format which does not reference one in its configuration
+     */
+    private MetadataGenerator defaultGenerator(final MetadataFormat format) {
+        if (format.isCrosswalk()) {
+            return xsltGenerator;
+        }
+        if (autoGenerateOaiDc && format.getPrefix().equals("oai_dc")) {
+            return jcrPropertiesGenerator;
+        }
+        return binaryGenerator;
+    }
 
-        if (!triples.hasNext()) {
+    /**
+     * Let the format's generator write the record's metadata element into a DOM element, which is marshalled
+     * with the response
+     */
+    private Element generateMetadata(final MetadataFormat format, final RecordContext record)
+            throws IOException, RepositoryException {
+        final MetadataGenerator generator = format.getGenerator();
+        if (!generator.isAvailable(format, record)) {
             log.error("There is no OAI record of type " + format.getPrefix() + " associated with the object "
-                    + obj.getPath());
+                    + record.getContainer().getPath());
             return null;
         }
-
-        final String recordPath = triples.next().getObject().getLiteralValue().toString();
-        final FedoraBinary bin = binaryService.findOrCreate(session, "/" + recordPath);
-
-        try (final InputStream src = new XmlDeclarationStrippingInputStream(bin.getContent())) {
-            return new JAXBElement<String>(new QName(format.getPrefix()), String.class, IOUtils.toString(src));
+        final DOMResult result = new DOMResult();
+        try {
+            final XMLStreamWriter writer = outputFactory.createXMLStreamWriter(result);
+            generator.generate(format, record, writer);
+            writer.flush();
+            writer.close();
+        } catch (final XMLStreamException e) {
+            throw new IOException("Unable to generate the " + format.getPrefix() + " record of "
+                    + record.getContainer().getPath(), e);
         }
+        return ((Document) result.getNode()).getDocumentElement();
     }
 
     /**
@@ -541,6 +1030,7 @@ public class OAIProviderService {
      */
     public static JAXBElement<OAIPMHtype> error(final VerbType verb, final String identifier,
             final String metadataPrefix, final OAIPMHerrorcodeType errorCode, final String msg) {
+        metrics.counter(name(OAIProviderService.class, "errors", errorCode.value())).inc();
         final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
         final RequestType req = oaiFactory.createRequestType();
         req.setVerb(verb);
@@ -564,13 +1054,18 @@ public class OAIProviderService {
      * @param from the from
      * @param until the until
      * @param set the set
-     * @param offset the offset
+     * @param partition the partition or null
+     * @param cursor the path of the last object listed on the previous page, or null for the first page
+     * @param harvestStart the time in milliseconds the first page of the list request was issued
+     * @param prefetch true if the session may read all objects, so the page may be taken from and the following
+     *        page handed to the {@link PagePrefetcher}, which assembles pages with an internal session
      * @return the jAXB element
      * @throws RepositoryException the repository exception
      */
     public JAXBElement<OAIPMHtype> listIdentifiers(final Session session, final UriInfo uriInfo,
                                                    final String metadataPrefix, final String from, final String until,
-                                                   final String set, final int offset)
+                                                   final String set, final Partition partition, final String cursor,
+                                                   final long harvestStart, final boolean prefetch)
             throws RepositoryException {
 
         if (metadataPrefix == null) {
@@ -598,17 +1093,37 @@ public class OAIProviderService {
                     e.getMessage());
         }
 
+        final JAXBElement<OAIPMHtype> prefetched = !prefetch ? null :
+                takePrefetchedPage(session, VerbType.LIST_IDENTIFIERS, metadataPrefix, from, until, set, partition,
+                        cursor, harvestStart);
+        if (prefetched != null) {
+            return prefetched;
+        }
+        return listIdentifiersPage(session, uriInfo.getBaseUriBuilder(), metadataPrefix, from, until, set, partition,
+                cursor, harvestStart, prefetch);
+    }
+
+    JAXBElement<OAIPMHtype> listIdentifiersPage(final Session session, final UriBuilder baseUri,
+            final String metadataPrefix, final String from, final String until, final String set,
+            final Partition partition, final String cursor, final long harvestStart, final boolean prefetch)
+            throws RepositoryException {
+        return listIdentifiersPage(session, baseUri, metadataPrefix, from, until, set, partition, cursor,
+                harvestStart, prefetch, new HarvestTrace(VerbType.LIST_IDENTIFIERS, metadataPrefix, cursor));
+    }
+
+    private JAXBElement<OAIPMHtype> listIdentifiersPage(final Session session, final UriBuilder baseUri,
+            final String metadataPrefix, final String from, final String until, final String set,
+            final Partition partition, final String cursor, final long harvestStart, final boolean prefetch,
+            final HarvestTrace trace) throws RepositoryException {
+
         final HttpResourceConverter converter = new HttpResourceConverter(session,
-                uriInfo.getBaseUriBuilder().clone().path(FedoraNodes.class));
-        final ValueConverter valueConverter = new ValueConverter(session, converter);
+                baseUri.clone().path(FedoraNodes.class));
 
-        final String jql = listResourceQuery(session, FedoraTypes.FEDORA_CONTAINER,
-                from, until, set, maxListSize, offset);
         try {
-            final QueryManager queryManager = session.getWorkspace().getQueryManager();
-            final RowIterator result = executeQuery(queryManager, jql);
+            final ResourcePage page = queryResources(session, metadataFormats.get(metadataPrefix), from, until, set,
+                    partition, cursor, trace);
 
-            if (!result.hasNext()) {
+            if (page.subjects.isEmpty()) {
                 return error(VerbType.LIST_IDENTIFIERS, null, metadataPrefix, OAIPMHerrorcodeType.NO_RECORDS_MATCH,
                         "No record found");
             }
@@ -616,38 +1131,20 @@ public class OAIProviderService {
             final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
             final ListIdentifiersType ids = oaiFactory.createListIdentifiersType();
 
-            while (result.hasNext()) {
-                final HeaderType h = oaiFactory.createHeaderType();
-                final Row sol = result.nextRow();
-                final Resource sub = valueConverter.convert(sol.getValue("sub")).asResource();
-                final String path = converter.convert(sub).getPath();
-
-                h.setIdentifier(sub.getURI());
-                final Container obj =
-                        this.containerService.findOrCreate(session, path);
-                h.setDatestamp(dateFormat.print(obj.getLastModifiedDate().getTime()));
-
-                final RdfStream triples = obj.getTriples(converter, PropertiesRdfContext.class).filter(
-                        new PropertyPredicate(propertyIsPartOfSet));
-                final List<String> setNames = new ArrayList<>();
-                while (triples.hasNext()) {
-                    setNames.add(triples.next().getObject().getLiteralValue().toString());
-                }
-                for (final String name : setNames) {
-                    final Container setObject = this.containerService.findOrCreate(session, setsRootPath + "/"
-                            + name);
-                    final RdfStream setTriples = setObject.getTriples(converter, PropertiesRdfContext.class).filter(
-                            new PropertyPredicate(propertyHasSetSpec));
-                    h.getSetSpec().add(setTriples.next().getObject().getLiteralValue().toString());
-                }
-                ids.getHeader().add(h);
+            for (final Row row : page.rows) {
+                ids.getHeader().add(createHeader(session, row, converter, trace));
             }
 
             final RequestType req = oaiFactory.createRequestType();
-            if (ids.getHeader().size() == maxListSize) {
-                req.setResumptionToken(encodeResumptionToken(VerbType.LIST_IDENTIFIERS.value(), metadataPrefix, from,
-                        until, set,
-                        offset + maxListSize));
+            if (page.hasMore) {
+                final String token = encodeResumptionToken(VerbType.LIST_IDENTIFIERS, metadataPrefix, from, until,
+                        set, partition, page.nextCursor, harvestStart);
+                req.setResumptionToken(token);
+                if (prefetch && pagePrefetcher != null && !isRestricted(session)) {
+                    pagePrefetcher.prefetch(session.getUserID(), token, identifiers(converter),
+                            t -> s -> listIdentifiersPage(s, baseUri, metadataPrefix, from, until, set, partition,
+                                    decodeResumptionToken(t).getCursor(), harvestStart, false));
+                }
             }
             req.setVerb(VerbType.LIST_IDENTIFIERS);
             req.setMetadataPrefix(metadataPrefix);
@@ -655,35 +1152,105 @@ public class OAIProviderService {
             oai.setListIdentifiers(ids);
             return oaiFactory.createOAIPMH(oai);
         } catch (final Exception e) {
-            e.printStackTrace();
+            log.error("Unable to create the ListIdentifiers response", e);
             throw new RepositoryException(e);
         }
     }
 
     /**
-     * Encode resumption token.
+     * Assemble a ListRecords or ListIdentifiers page with a recording trace and report the queries run, the plans
+     * ModeShape chose for them, the indexes used, the row counts and the time spent in each stage. The page is
+     * neither prefetched nor marshalled.
      *
-     * @param verb the verb
+     * @param session the session
+     * @param uriInfo the uri info
+     * @param verb the list verb
      * @param metadataPrefix the metadata prefix
      * @param from the from
      * @param until the until
      * @param set the set
-     * @param offset the offset
-     * @return the string
-     * @throws UnsupportedEncodingException the unsupported encoding exception
+     * @param partition the partition or null
+     * @param cursor the path of the last object listed on the previous page, or null for the first page
+     * @return a plain text report
+     * @throws RepositoryException the repository exception
      */
-    public static String encodeResumptionToken(final String verb, final String metadataPrefix, final String from,
-            final String until, final String set, final int offset) throws UnsupportedEncodingException {
+    public String explain(final Session session, final UriInfo uriInfo, final VerbType verb,
+            final String metadataPrefix, final String from, final String until, final String set,
+            final Partition partition, final String cursor) throws RepositoryException {
+        if (verb != VerbType.LIST_RECORDS && verb != VerbType.LIST_IDENTIFIERS) {
+            throw new IllegalArgumentException("Only ListRecords and ListIdentifiers can be explained");
+        }
+        final MetadataFormat mdf = metadataFormats.get(metadataPrefix);
+        if (mdf == null) {
+            throw new IllegalArgumentException("Unavailable metadata format " + metadataPrefix);
+        }
+        validateDateTimeFormat(from);
+        validateDateTimeFormat(until);
+
+        final HarvestTrace trace = new HarvestTrace(verb, metadataPrefix, cursor, true);
+        final long start = System.nanoTime();
+        final JAXBElement<OAIPMHtype> page = verb == VerbType.LIST_RECORDS
+                ? listRecordsPage(session, uriInfo.getBaseUriBuilder(), mdf, from, until, set, partition, cursor,
+                        System.currentTimeMillis(), false, trace)
+                : listIdentifiersPage(session, uriInfo.getBaseUriBuilder(), metadataPrefix, from, until, set,
+                        partition, cursor, System.currentTimeMillis(), false, trace);
+        final long total = System.nanoTime() - start;
+
+        final StringBuilder report = new StringBuilder();
+        report.append("verb ").append(verb.value()).append('\n');
+        report.append("metadataPrefix ").append(metadataPrefix).append('\n');
+        report.append("cursor ").append(cursor == null ? "first page" : cursor).append('\n');
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        for (final String jql : trace.getQueries()) {
+            final String plan = QueryIndexes.explain(queryManager, jql);
+            report.append("\nquery ").append(jql).append('\n');
+            if (queryIndexes != null) {
+                final List<String> used = queryIndexes.getUsedIndexes(plan);
+                report.append("indexes ").append(used.isEmpty() ? "none, all nodes are scanned" : used)
+                        .append('\n');
+            }
+            report.append("plan\n").append(plan).append('\n');
+        }
 
-        final String[] data = new String[] {
-            urlEncode(verb),
-            urlEncode(metadataPrefix),
-            urlEncode(from != null ? from : ""),
-            urlEncode(until != null ? until : ""),
-            urlEncode(set != null ? set : ""),
-            urlEncode(String.valueOf(offset))
-        };
-        return Base64.encodeBase64URLSafeString(StringUtils.join(data, ':').getBytes("UTF-8"));
+        final OAIPMHtype oai = page.getValue();
+        report.append("\nresult ");
+        if (!oai.getError().isEmpty()) {
+            report.append(oai.getError().get(0).getCode().value());
+        } else if (oai.getListRecords() != null) {
+            report.append(oai.getListRecords().getRecord().size()).append(" records");
+        } else {
+            report.append(oai.getListIdentifiers().getHeader().size()).append(" headers");
+        }
+        report.append('\n');
+
+        report.append(String.format("%nstage%18s%12s%12s%12s%n", "count", "ms", "rows", "bytes"));
+        for (final Map.Entry<String, HarvestTrace.StageTotals> stage : trace.getStageTotals().entrySet()) {
+            final HarvestTrace.StageTotals totals = stage.getValue();
+            report.append(String.format("%-18s%5d%12.3f%12d%12d%n", stage.getKey(), totals.getCount(),
+                    totals.getNanos() / 1e6, totals.getRows(), totals.getBytes()));
+        }
+        report.append(String.format("%-18s%17.3f%n", "total", total / 1e6));
+        return report.toString();
+    }
+
+    /**
+     * Encode resumption token.
+     *
+     * @param verb the verb
+     * @param metadataPrefix the metadata prefix
+     * @param from the from
+     * @param until the until
+     * @param set the set
+     * @param partition the partition or null
+     * @param cursor the key of the last item listed, the page of the token starts after it
+     * @param harvestStart the time in milliseconds the first page of the list request was issued
+     * @return the signed token
+     */
+    public String encodeResumptionToken(final VerbType verb, final String metadataPrefix, final String from,
+            final String until, final String set, final Partition partition, final String cursor,
+            final long harvestStart) {
+        return tokenCodec.encode(new ResumptionToken(verb.value(), metadataPrefix, from, until, cursor, set,
+                partition != null ? partition.toString() : null, harvestStart));
     }
 
     /**
@@ -713,79 +1280,75 @@ public class OAIProviderService {
      *
      * @param token the token
      * @return the resumption token
-     * @throws UnsupportedEncodingException the unsupported encoding exception
+     * @throws IllegalArgumentException if the token is malformed, was not signed with this provider's key or expired
      */
-    public static ResumptionToken decodeResumptionToken(final String token) throws UnsupportedEncodingException {
-        final String[] data = StringUtils.splitPreserveAllTokens(new String(Base64.decodeBase64(token)), ':');
-        final String verb = urlDecode(data[0]);
-        final String metadataPrefix = urlDecode(data[1]);
-        final String from = urlDecode(data[2]);
-        final String until = urlDecode(data[3]);
-        final String set = urlDecode(data[4]);
-        final int offset = Integer.parseInt(urlDecode(data[5]));
-        return new ResumptionToken(verb, metadataPrefix, from, until, offset, set);
+    public ResumptionToken decodeResumptionToken(final String token) {
+        return tokenCodec.decode(token);
     }
 
     /**
-     * List sets.
+     * List sets. The sets are read with a single query over the set containers below the sets root, ordered by
+     * setSpec and paged using resumption tokens.
      *
      * @param session the session
      * @param uriInfo the uri info
-     * @param offset the offset
+     * @param cursor the setSpec of the last set listed on the previous page, or null for the first page
+     * @param harvestStart the time in milliseconds the first page of the list request was issued
      * @return the jAXB element
      * @throws RepositoryException the repository exception
      */
-    public JAXBElement<OAIPMHtype> listSets(final Session session, final UriInfo uriInfo, final int offset)
-            throws RepositoryException {
-        final HttpResourceConverter converter =
-                new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone().path(FedoraLdp.class));
-        final ValueConverter valueConverter = new ValueConverter(session, converter);
-
+    public JAXBElement<OAIPMHtype> listSets(final Session session, final UriInfo uriInfo, final String cursor,
+            final long harvestStart) throws RepositoryException {
         try {
             if (!setsEnabled) {
                 return error(VerbType.LIST_SETS, null, null, OAIPMHerrorcodeType.NO_SET_HIERARCHY,
                         "Set are not enabled");
             }
 
-            final String propJcrPath = getPropertyName(session,
-                    createProperty(RdfLexicon.JCR_NAMESPACE + "path"));
-            final String propOAISet_ref = getPropertyName(session, createProperty(propertyHasSets + "_ref"));
-
-            final String jql = "SELECT [" + propOAISet_ref + "] AS obj FROM [" + FedoraTypes.FEDORA_RESOURCE + "]"
-                    + " WHERE [" + propJcrPath + "] = '" + setsRootPath + "'";
+            final String propHasOAISetName = getPropertyName(session, createProperty(propertySetName));
+            final String propHasOAISetSpec = getPropertyName(session, createProperty(propertyHasSetSpec));
+            final String propSetDescription = propertySetDescription == null ? null
+                    : getPropertyName(session, createProperty(propertySetDescription));
+
+            final String jql = "SELECT res.[" + propHasOAISetName + "] AS name, res.[" + propHasOAISetSpec
+                    + "] AS spec FROM [" + FedoraTypes.FEDORA_CONTAINER + "] AS [res]"
+                    + " WHERE ISDESCENDANTNODE(res, '" + quote(setsRootPath) + "')"
+                    + " AND res.[" + propHasOAISetSpec + "] IS NOT NULL"
+                    + (cursor == null ? "" : " AND res.[" + propHasOAISetSpec + "] > '" + quote(cursor) + "'")
+                    + " ORDER BY res.[" + propHasOAISetSpec + "]"
+                    + " LIMIT " + maxListSize;
             final QueryManager queryManager = session.getWorkspace().getQueryManager();
-            final RowIterator result = executeQuery(queryManager, jql);
+            final RowIterator result = executeQuery(queryManager, jql,
+                    new HarvestTrace(VerbType.LIST_SETS, null, cursor));
             if (!result.hasNext()) {
-                return error(VerbType.LIST_IDENTIFIERS, null, null, OAIPMHerrorcodeType.NO_RECORDS_MATCH,
+                return error(VerbType.LIST_SETS, null, null, OAIPMHerrorcodeType.NO_RECORDS_MATCH,
                         "No record found");
             }
 
             final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
             final ListSetsType sets = oaiFactory.createListSetsType();
-            final String propHasOAISetName = getPropertyName(session, createProperty(propertySetName));
-            final String propHasOAISetSpec = getPropertyName(session, createProperty(propertyHasSetSpec));
-
             while (result.hasNext()) {
                 final Row row = result.nextRow();
-                final Resource setRes = valueConverter.convert(row.getValue("obj")).asResource();
-
-                final String setJql = "SELECT [" + propHasOAISetName + "] AS name,"
-                        + " [" + propHasOAISetSpec + "] AS spec FROM [" + FedoraTypes.FEDORA_RESOURCE + "]"
-                        + " WHERE [" + propJcrPath + "] = '" + converter.convert(setRes).getPath() + "'";
-
-                final RowIterator setResult = executeQuery(queryManager, setJql);
-                while (setResult.hasNext()) {
-                    final SetType set = oaiFactory.createSetType();
-                    final Row sol = setResult.nextRow();
-                    set.setSetName(valueConverter.convert(sol.getValue("name")).asLiteral().getString());
-                    set.setSetSpec(valueConverter.convert(sol.getValue("spec")).asLiteral().getString());
-                    sets.getSet().add(set);
+                final SetType set = oaiFactory.createSetType();
+                set.setSetName(row.getValue("name").getString());
+                set.setSetSpec(row.getValue("spec").getString());
+                if (propSetDescription != null) {
+                    set.getSetDescription().addAll(readDescriptions(row.getNode(), propSetDescription));
                 }
+                sets.getSet().add(set);
             }
+
+            final RequestType req = oaiFactory.createRequestType();
+            if (sets.getSet().size() == maxListSize) {
+                req.setResumptionToken(encodeResumptionToken(VerbType.LIST_SETS, "", null, null, null, null,
+                        sets.getSet().get(maxListSize - 1).getSetSpec(), harvestStart));
+            }
+            req.setVerb(VerbType.LIST_SETS);
+            oai.setRequest(req);
             oai.setListSets(sets);
             return oaiFactory.createOAIPMH(oai);
         } catch (final Exception e) {
-            e.printStackTrace();
+            log.error("Unable to create the ListSets response", e);
             throw new RepositoryException(e);
         }
     }
@@ -804,55 +1367,311 @@ public class OAIProviderService {
         final HttpResourceConverter converter =
                 new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone().path(FedoraLdp.class));
         try {
-            final SetType set = this.unmarshaller.unmarshal(new StreamSource(src), SetType.class).getValue();
-            final String setId = getSetId(set);
-            if (!this.nodeService.exists(session, setsRootPath)) {
-                throw new RepositoryException("The root set object does not exist");
+            final SetType set = OaiJaxbContext.get().createUnmarshaller()
+                    .unmarshal(new StreamSource(src), SetType.class).getValue();
+            final Container setRoot = getSetRoot(session);
+            final Container setObject = writeSet(session, set);
+            linkSets(converter, setRoot, Collections.singletonList(setObject.getPath()));
+            session.save();
+            return setObject.getPath();
+        } catch (final JAXBException e) {
+            log.error("Unable to read the set", e);
+            throw new RepositoryException(e);
+        }
+    }
+
+    /**
+     * Create a batch of sets. The source is read as a stream of <code>set</code> elements, which may be wrapped in
+     * an arbitrary root element. All valid sets are written and linked to the sets root in a single save, sets
+     * which can not be created are reported in the results without affecting the rest of the batch.
+     *
+     * @param session the session
+     * @param uriInfo the uri info
+     * @param src the src
+     * @return the result for each set in the order they appeared in the source
+     * @throws RepositoryException the repository exception
+     */
+    public List<SetResult> createSets(final Session session, final UriInfo uriInfo, final InputStream src)
+            throws RepositoryException {
+        final HttpResourceConverter converter =
+                new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone().path(FedoraLdp.class));
+        final List<SetResult> results = new ArrayList<>();
+        final List<String> created = new ArrayList<>();
+        XMLStreamReader reader = null;
+        try {
+            final Container setRoot = getSetRoot(session);
+            final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+            inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            reader = inputFactory.createXMLStreamReader(src);
+            final Unmarshaller setUnmarshaller = OaiJaxbContext.get().createUnmarshaller();
+            while (reader.hasNext()) {
+                /* unmarshalling consumes the set element and leaves the reader on the following event */
+                if (reader.getEventType() != XMLStreamConstants.START_ELEMENT
+                        || !"set".equals(reader.getLocalName())) {
+                    reader.next();
+                    continue;
+                }
+                final SetType set = setUnmarshaller.unmarshal(reader, SetType.class).getValue();
+                try {
+                    final Container setObject = writeSet(session, set);
+                    created.add(setObject.getPath());
+                    results.add(SetResult.created(set.getSetSpec(), setObject.getPath()));
+                } catch (final InvalidSetException e) {
+                    log.debug("Skipping set {} of batch: {}", set.getSetSpec(), e.getMessage());
+                    results.add(SetResult.failed(set.getSetSpec(), e.getMessage(), e.isConflict()));
+                }
             }
-            final Container setRoot = this.containerService.findOrCreate(session, setsRootPath);
-            if (set.getSetSpec() != null) {
-                /* validate that the hierarchy of sets exists */
+            if (!created.isEmpty()) {
+                linkSets(converter, setRoot, created);
+                session.save();
             }
-
-            if (this.nodeService.exists(session, setsRootPath + "/" + setId)) {
-                throw new RepositoryException("The OAI Set with the id already exists");
+            log.info("Created {} of {} OAI sets in batch", created.size(), results.size());
+            return results;
+        } catch (final JAXBException | XMLStreamException e) {
+            session.refresh(false);
+            throw new RepositoryException("Unable to read the batch of sets", e);
+        } catch (final RepositoryException e) {
+            session.refresh(false);
+            throw e;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final XMLStreamException e) {
+                    log.warn("Unable to close batch reader", e);
+                }
             }
-            final Container setObject = this.containerService.findOrCreate(session, setsRootPath + "/" + setId);
-
-            final StringBuilder sparql =
-                    new StringBuilder("INSERT DATA {<" + converter.toDomain(setRoot.getPath()) + "> <" +
-                            propertyHasSets + "> <" + converter.toDomain(setObject.getPath()) + ">}");
-            setRoot.updateProperties(converter, sparql.toString(), new RdfStream());
-
-            sparql.setLength(0);
-            sparql.append("INSERT DATA {")
-                    .append("<" + converter.toDomain(setObject.getPath()) + "> <" + propertySetName +
-                            "> '" + set.getSetName() + "' .")
-                    .append("<" + converter.toDomain(setObject.getPath()) + "> <" + propertyHasSetSpec +
-                            "> '" + set.getSetSpec() + "' .");
+        }
+    }
+
+    private Container getSetRoot(final Session session) throws RepositoryException {
+        if (!this.nodeService.exists(session, setsRootPath)) {
+            throw new RepositoryException("The root set object does not exist");
+        }
+        return this.containerService.findOrCreate(session, setsRootPath);
+    }
+
+    /**
+     * Write a set's container and properties to the session without saving it
+     */
+    private Container writeSet(final Session session, final SetType set) throws RepositoryException {
+        final String setId = getSetId(set);
+        if (StringUtils.isBlank(set.getSetName())) {
+            throw new InvalidSetException("SetName can not be empty");
+        }
+        /* validate that the hierarchy of sets exists */
+        final int parentPos = setId.lastIndexOf('/');
+        if (parentPos > 0 && !this.nodeService.exists(session, setsRootPath + "/" + setId.substring(0, parentPos))) {
+            throw new InvalidSetException("The parent of the OAI Set " + set.getSetSpec() + " does not exist");
+        }
+        if (this.nodeService.exists(session, setsRootPath + "/" + setId)) {
+            throw new InvalidSetException("The OAI Set with the id already exists", true);
+        }
+
+        final Container setObject = this.containerService.findOrCreate(session, setsRootPath + "/" + setId);
+        final Node node = setObject.getNode();
+        node.setProperty(getPropertyName(session, createProperty(propertySetName)), set.getSetName());
+        node.setProperty(getPropertyName(session, createProperty(propertyHasSetSpec)), set.getSetSpec());
+        if (propertySetDescription != null && !set.getSetDescription().isEmpty()) {
+            final List<String> descriptions = new ArrayList<>(set.getSetDescription().size());
             for (final DescriptionType desc : set.getSetDescription()) {
-                // TODO: save description
+                descriptions.add(marshalDescription(desc));
             }
-            sparql.append("}");
-            setObject.updateProperties(converter, sparql.toString(), new RdfStream());
-            session.save();
-            return setObject.getPath();
+            node.setProperty(getPropertyName(session, createProperty(propertySetDescription)),
+                    descriptions.toArray(new String[descriptions.size()]));
+        }
+        return setObject;
+    }
+
+    /**
+     * Link the given set containers to the sets root with a single update
+     */
+    private void linkSets(final HttpResourceConverter converter, final Container setRoot, final List<String> paths)
+            throws RepositoryException {
+        final String root = "<" + converter.toDomain(setRoot.getPath()) + "> <" + propertyHasSets + "> ";
+        final StringBuilder sparql = new StringBuilder("INSERT DATA {");
+        for (final String path : paths) {
+            sparql.append(root).append('<').append(converter.toDomain(path)).append("> .");
+        }
+        sparql.append('}');
+        setRoot.updateProperties(converter, sparql.toString(), new RdfStream());
+    }
+
+    private String marshalDescription(final DescriptionType desc) throws RepositoryException {
+        try {
+            final Marshaller marshaller = OaiJaxbContext.get().createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            final StringWriter sink = new StringWriter();
+            marshaller.marshal(new JAXBElement<>(SET_DESCRIPTION, DescriptionType.class, desc), sink);
+            return sink.toString();
         } catch (final JAXBException e) {
-            e.printStackTrace();
-            throw new RepositoryException(e);
+            throw new InvalidSetException("Unable to serialize the set's description: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read the descriptions persisted with a set's container
+     */
+    private List<DescriptionType> readDescriptions(final Node node, final String propertyName)
+            throws RepositoryException, JAXBException {
+        final List<DescriptionType> descriptions = new ArrayList<>();
+        if (!node.hasProperty(propertyName)) {
+            return descriptions;
+        }
+        final javax.jcr.Property prop = node.getProperty(propertyName);
+        final Value[] values = prop.isMultiple() ? prop.getValues() : new Value[] { prop.getValue() };
+        final Unmarshaller descUnmarshaller = OaiJaxbContext.get().createUnmarshaller();
+        for (final Value value : values) {
+            descriptions.add(descUnmarshaller.unmarshal(new StreamSource(new StringReader(value.getString())),
+                    DescriptionType.class).getValue());
+        }
+        return descriptions;
+    }
+
+    /**
+     * Add objects to or remove them from a set. The identifiers are read lazily and the changes are saved in
+     * batches of <code>membershipBatchSize</code> objects, so arbitrarily large lists can be processed.
+     *
+     * @param session the session
+     * @param setSpec the set's setSpec
+     * @param identifiers the identifiers of the objects
+     * @param remove true to remove the objects from the set
+     * @param progress notified with the running totals after each saved batch
+     * @return the totals of the update
+     * @throws RepositoryException the repository exception
+     */
+    public MembershipResult updateSetMembers(final Session session, final String setSpec,
+            final Iterator<String> identifiers, final boolean remove, final Consumer<MembershipResult> progress)
+            throws RepositoryException {
+        final String propIsPartOfSet = getMembershipProperty(session, setSpec);
+        final MembershipResult result = new MembershipResult(setSpec);
+        try {
+            while (identifiers.hasNext()) {
+                final String identifier = identifiers.next().trim();
+                if (identifier.isEmpty()) {
+                    continue;
+                }
+                final String path = identifier.startsWith("/") ? identifier : "/" + identifier;
+                if (this.nodeService.exists(session, path)) {
+                    updateMember(session, session.getNode(path), propIsPartOfSet, result, remove);
+                } else {
+                    result.missing();
+                }
+                saveBatch(session, result, progress, false);
+            }
+            saveBatch(session, result, progress, true);
+            return result;
+        } catch (final RepositoryException e) {
+            session.refresh(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Add the objects selected by a JCR-SQL2 query to a set or remove them from it. The changes are saved in
+     * batches of <code>membershipBatchSize</code> objects.
+     *
+     * @param session the session
+     * @param setSpec the set's setSpec
+     * @param jql the JCR-SQL2 query selecting the objects
+     * @param remove true to remove the objects from the set
+     * @param progress notified with the running totals after each saved batch
+     * @return the totals of the update
+     * @throws RepositoryException the repository exception
+     */
+    public MembershipResult updateSetMembers(final Session session, final String setSpec, final String jql,
+            final boolean remove, final Consumer<MembershipResult> progress) throws RepositoryException {
+        final String propIsPartOfSet = getMembershipProperty(session, setSpec);
+        final MembershipResult result = new MembershipResult(setSpec);
+        try {
+            final Query query = session.getWorkspace().getQueryManager().createQuery(jql, Query.JCR_SQL2);
+            final NodeIterator nodes = query.execute().getNodes();
+            while (nodes.hasNext()) {
+                updateMember(session, nodes.nextNode(), propIsPartOfSet, result, remove);
+                saveBatch(session, result, progress, false);
+            }
+            saveBatch(session, result, progress, true);
+            return result;
+        } catch (final RepositoryException e) {
+            session.refresh(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Check whether a set exists.
+     *
+     * @param session the session
+     * @param setSpec the set's setSpec
+     * @return true if the set exists
+     * @throws RepositoryException the repository exception
+     */
+    public boolean setExists(final Session session, final String setSpec) throws RepositoryException {
+        return setSpec != null && SET_SPEC_PATTERN.matcher(setSpec).matches()
+                && this.nodeService.exists(session, setsRootPath + "/" + setSpec.replace(':', '/'));
+    }
+
+    private String getMembershipProperty(final Session session, final String setSpec) throws RepositoryException {
+        if (!setExists(session, setSpec)) {
+            throw new PathNotFoundException("The OAI Set " + setSpec + " does not exist");
         }
+        return getPropertyName(session, createProperty(propertyIsPartOfSet));
     }
 
+    private void updateMember(final Session session, final Node node, final String propIsPartOfSet,
+            final MembershipResult result, final boolean remove) throws RepositoryException {
+        if (!node.isNodeType(FedoraTypes.FEDORA_CONTAINER)) {
+            result.missing();
+            return;
+        }
+        final List<String> specs = new ArrayList<>();
+        if (node.hasProperty(propIsPartOfSet)) {
+            final javax.jcr.Property prop = node.getProperty(propIsPartOfSet);
+            for (final Value value : prop.isMultiple() ? prop.getValues() : new Value[] { prop.getValue() }) {
+                specs.add(value.getString());
+            }
+        }
+        final boolean changed = remove ? specs.remove(result.getSetSpec())
+                : !specs.contains(result.getSetSpec()) && specs.add(result.getSetSpec());
+        if (changed) {
+            /* replace the property, it may have been written single valued */
+            if (node.hasProperty(propIsPartOfSet)) {
+                node.getProperty(propIsPartOfSet).remove();
+            }
+            if (!specs.isEmpty()) {
+                node.setProperty(propIsPartOfSet, specs.toArray(new String[specs.size()]));
+            }
+        }
+        result.processed(changed);
+    }
+
+    private void saveBatch(final Session session, final MembershipResult result,
+            final Consumer<MembershipResult> progress, final boolean last) throws RepositoryException {
+        /* a final batch which has been saved in full has already been reported */
+        final boolean fullBatch = result.getProcessed() % membershipBatchSize == 0;
+        if (last ? fullBatch && result.getProcessed() > 0 : !fullBatch) {
+            return;
+        }
+        if (session.hasPendingChanges()) {
+            session.save();
+        }
+        log.debug("Set membership update {}", result);
+        progress.accept(result);
+    }
+
+    /**
+     * Get the path of a set's container relative to the sets root. Nested sets are stored below their parent
+     * set, so the setSpec 'a:b:c' maps to 'a/b/c'
+     */
     private String getSetId(final SetType set) throws RepositoryException {
         if (set.getSetSpec() == null) {
-            throw new RepositoryException("SetSpec can not be empty");
+            throw new InvalidSetException("SetSpec can not be empty");
         }
-        String id = set.getSetSpec();
-        final int colonPos = id.indexOf(':');
-        while (colonPos > 0) {
-            id = id.substring(colonPos + 1);
+        if (!SET_SPEC_PATTERN.matcher(set.getSetSpec()).matches()) {
+            throw new InvalidSetException("SetSpec " + set.getSetSpec() + " is invalid");
         }
-        return id;
+        return set.getSetSpec().replace(':', '/');
     }
 
     /**
@@ -864,17 +1683,19 @@ public class OAIProviderService {
      * @param from the from
      * @param until the until
      * @param set the set
-     * @param offset the offset
+     * @param partition the partition or null
+     * @param cursor the path of the last object listed on the previous page, or null for the first page
+     * @param harvestStart the time in milliseconds the first page of the list request was issued
+     * @param prefetch true if the session may read all objects, so the page may be taken from and the following
+     *        page handed to the {@link PagePrefetcher}, which assembles pages with an internal session
      * @return the jAXB element
      * @throws RepositoryException the repository exception
      */
     public JAXBElement<OAIPMHtype> listRecords(final Session session, final UriInfo uriInfo,
                                                final String metadataPrefix, final String from, final String until,
-                                               final String set, final int offset) throws RepositoryException {
-
-        final HttpResourceConverter converter =
-                new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone().path(FedoraNodes.class));
-        final ValueConverter valueConverter = new ValueConverter(session, converter);
+                                               final String set, final Partition partition, final String cursor,
+                                               final long harvestStart, final boolean prefetch)
+            throws RepositoryException {
 
         if (metadataPrefix == null) {
             return error(VerbType.LIST_RECORDS, null, null, OAIPMHerrorcodeType.BAD_ARGUMENT,
@@ -900,33 +1721,64 @@ public class OAIProviderService {
                     "Sets are not enabled");
         }
 
-        final String jql = listResourceQuery(session, FedoraTypes.FEDORA_CONTAINER,
-                from, until, set, maxListSize, offset);
-        try {
+        final JAXBElement<OAIPMHtype> prefetched = !prefetch ? null :
+                takePrefetchedPage(session, VerbType.LIST_RECORDS, metadataPrefix, from, until, set, partition, cursor,
+                        harvestStart);
+        if (prefetched != null) {
+            return prefetched;
+        }
+        return listRecordsPage(session, uriInfo.getBaseUriBuilder(), mdf, from, until, set, partition, cursor,
+                harvestStart, prefetch);
+    }
 
-            final QueryManager queryManager = session.getWorkspace().getQueryManager();
-            final RowIterator result = executeQuery(queryManager, jql);
+    JAXBElement<OAIPMHtype> listRecordsPage(final Session session, final UriBuilder baseUri,
+            final MetadataFormat mdf, final String from, final String until, final String set,
+            final Partition partition, final String cursor, final long harvestStart, final boolean prefetch)
+            throws RepositoryException {
+        return listRecordsPage(session, baseUri, mdf, from, until, set, partition, cursor, harvestStart, prefetch,
+                new HarvestTrace(VerbType.LIST_RECORDS, mdf.getPrefix(), cursor));
+    }
 
-            if (!result.hasNext()) {
+    private JAXBElement<OAIPMHtype> listRecordsPage(final Session session, final UriBuilder baseUri,
+            final MetadataFormat mdf, final String from, final String until, final String set,
+            final Partition partition, final String cursor, final long harvestStart, final boolean prefetch,
+            final HarvestTrace trace) throws RepositoryException {
+
+        final HttpResourceConverter converter =
+                new HttpResourceConverter(session, baseUri.clone().path(FedoraNodes.class));
+        final ValueConverter valueConverter = new ValueConverter(session, converter);
+        final String metadataPrefix = mdf.getPrefix();
+
+        try {
+            final ResourcePage page = queryResources(session, mdf, from, until, set, partition, cursor, trace);
+
+            if (page.subjects.isEmpty()) {
                 return error(VerbType.LIST_RECORDS, null, metadataPrefix, OAIPMHerrorcodeType.NO_RECORDS_MATCH,
                         "No record found");
             }
 
             final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
             final ListRecordsType records = oaiFactory.createListRecordsType();
-            while (result.hasNext()) {
-                // check if the records exists
-                final Row solution = result.nextRow();
-                final Resource subjectUri = valueConverter.convert(solution.getValue("sub")).asResource();
-                final RecordType record = this.createRecord(session, mdf, converter.asString(subjectUri), uriInfo);
-                records.getRecord().add(record);
+            for (final Value subject : page.subjects) {
+                final Resource subjectUri = valueConverter.convert(subject).asResource();
+                final RecordType record =
+                        this.createRecord(session, mdf, converter.asString(subjectUri), converter, trace);
+                /* records excluded by the validator still count towards the page */
+                if (record != null) {
+                    records.getRecord().add(record);
+                }
             }
 
             final RequestType req = oaiFactory.createRequestType();
-            if (records.getRecord().size() == maxListSize) {
-                req.setResumptionToken(encodeResumptionToken(VerbType.LIST_RECORDS.value(), metadataPrefix, from,
-                        until, set,
-                        offset + maxListSize));
+            if (page.hasMore) {
+                final String token = encodeResumptionToken(VerbType.LIST_RECORDS, metadataPrefix, from, until, set,
+                        partition, page.nextCursor, harvestStart);
+                req.setResumptionToken(token);
+                if (prefetch && pagePrefetcher != null && !isRestricted(session)) {
+                    pagePrefetcher.prefetch(session.getUserID(), token, identifiers(converter),
+                            t -> s -> listRecordsPage(s, baseUri, mdf, from, until, set, partition,
+                                    decodeResumptionToken(t).getCursor(), harvestStart, false));
+                }
             }
             req.setVerb(VerbType.LIST_RECORDS);
             req.setMetadataPrefix(metadataPrefix);
@@ -934,69 +1786,171 @@ public class OAIProviderService {
             oai.setListRecords(records);
             return oaiFactory.createOAIPMH(oai);
         } catch (final Exception e) {
-            e.printStackTrace();
+            log.error("Unable to create the ListRecords response", e);
             throw new RepositoryException(e);
         }
     }
 
+    private JAXBElement<OAIPMHtype> takePrefetchedPage(final Session session, final VerbType verb,
+            final String metadataPrefix, final String from, final String until, final String set,
+            final Partition partition, final String cursor, final long harvestStart) {
+        if (pagePrefetcher == null || cursor == null || isRestricted(session)) {
+            return null;
+        }
+        return pagePrefetcher.take(session.getUserID(),
+                encodeResumptionToken(verb, metadataPrefix, from, until, set, partition, cursor, harvestStart));
+    }
+
+    /**
+     * Get the setSpecs of the sets an object is part of. Members reference their sets by the full setSpec, which
+     * materializes the set hierarchy on the member, e.g. 'a:b:c' for a member of the set 'c' nested in 'a:b'
+     */
+    private List<String> getSetSpecs(final Container obj, final HttpResourceConverter converter)
+            throws RepositoryException {
+        final RdfStream triples = obj.getTriples(converter, PropertiesRdfContext.class).filter(
+                new PropertyPredicate(propertyIsPartOfSet));
+        final List<String> setSpecs = new ArrayList<>();
+        while (triples.hasNext()) {
+            setSpecs.add(triples.next().getObject().getLiteralValue().toString());
+        }
+        return setSpecs;
+    }
+
+    /**
+     * The OAI identifier of an object, the URI of the object's path
+     */
+    private static String identifier(final HttpResourceConverter converter, final String path) {
+        return converter.toDomain(path).getURI();
+    }
+
+    private static Function<String, String> identifiers(final HttpResourceConverter converter) {
+        return path -> identifier(converter, path);
+    }
+
+    /**
+     * Create a header from the columns projected by {@link #listResourceQuery}. Only objects which are members of
+     * a set have their node read, since the values of the multi valued membership property are read from the node
+     */
+    private HeaderType createHeader(final Session session, final Row row, final HttpResourceConverter converter,
+            final HarvestTrace trace) throws RepositoryException {
+        final HeaderType h = oaiFactory.createHeaderType();
+        final String path = row.getValue("sub").getString();
+        h.setIdentifier(identifier(converter, path));
+
+        final Value modified = row.getValue("modified");
+        if (modified != null) {
+            h.setDatestamp(dateFormat.print(modified.getDate().getTimeInMillis()));
+        } else {
+            try (final HarvestStage stage = trace.stage(HarvestStage.CONTAINER_LOOKUP)) {
+                h.setDatestamp(dateFormat.print(this.containerService.findOrCreate(session, path)
+                        .getLastModifiedDate().getTime()));
+            }
+        }
+
+        if (setsEnabled && row.getValue("sets") != null) {
+            try (final HarvestStage stage = trace.stage(HarvestStage.SET_RESOLUTION)) {
+                final javax.jcr.Property membership = session.getNode(path)
+                        .getProperty(getPropertyName(session, createProperty(propertyIsPartOfSet)));
+                if (membership.isMultiple()) {
+                    for (final Value value : membership.getValues()) {
+                        h.getSetSpec().add(value.getString());
+                    }
+                } else {
+                    h.getSetSpec().add(membership.getString());
+                }
+                stage.rows(h.getSetSpec().size());
+            }
+        }
+        return h;
+    }
+
     private RecordType createRecord(final Session session, final MetadataFormat mdf, final String s,
-                                    final UriInfo uriInfo) throws IOException, RepositoryException {
+                                    final HttpResourceConverter converter, final HarvestTrace trace)
+            throws IOException, RepositoryException {
+        try (final Timer.Context timer = recordTimer.time()) {
+            return assembleRecord(session, mdf, s, converter, trace);
+        }
+    }
+
+    private RecordType assembleRecord(final Session session, final MetadataFormat mdf, final String s,
+                                      final HttpResourceConverter converter, final HarvestTrace trace)
+            throws IOException, RepositoryException {
 
-        final HttpResourceConverter converter = new HttpResourceConverter(session, uriInfo.getBaseUriBuilder().clone()
-                .path(FedoraNodes.class));
         final HeaderType h = oaiFactory.createHeaderType();
-        final String subjectUri = converter.toDomain(s).getURI();
+        final String subjectUri = identifier(converter, s);
         h.setIdentifier(subjectUri);
 
-        final Container obj =
-                this.containerService.findOrCreate(session, s);
-        h.setDatestamp(dateFormat.print(obj.getLastModifiedDate().getTime()));
-        // get set names this object is part of
-
-        final RdfStream triples = obj.getTriples(converter, PropertiesRdfContext.class).filter(
-                new PropertyPredicate(propertyIsPartOfSet));
-        final List<String> setNames = new ArrayList<>();
-        while (triples.hasNext()) {
-            setNames.add(triples.next().getObject().getLiteralValue().toString());
+        final Container obj;
+        try (final HarvestStage stage = trace.stage(HarvestStage.CONTAINER_LOOKUP)) {
+            obj = this.containerService.findOrCreate(session, s);
+            h.setDatestamp(dateFormat.print(obj.getLastModifiedDate().getTime()));
         }
-        for (final String name : setNames) {
-            final Container setObject = this.containerService.findOrCreate(session,
-                                                                           setsRootPath + "/" + name);
-            final RdfStream setTriples = setObject.getTriples(converter, PropertiesRdfContext.class).filter(
-                    new PropertyPredicate(propertyHasSetSpec));
-            h.getSetSpec().add(setTriples.next().getObject().getLiteralValue().toString());
+
+        // get set names this object is part of
+        try (final HarvestStage stage = trace.stage(HarvestStage.SET_RESOLUTION)) {
+            h.getSetSpec().addAll(getSetSpecs(obj, converter));
+            stage.rows(h.getSetSpec().size());
         }
 
         // get the metadata record from fcrepo
         final MetadataType md = this.oaiFactory.createMetadataType();
-        if (mdf.getPrefix().equals("oai_dc")) {
-            /* generate a OAI DC reponse using the DC Generator from fcrepo4 */
-            md.setAny(generateOaiDc(session, obj, uriInfo));
-        } else {
-            /* generate a OAI response from the linked Binary */
-            md.setAny(fetchOaiResponse(obj, session, mdf, uriInfo));
+        final RecordContext record = new RecordContext(session, obj, converter, trace, binaryService, binaryCache,
+                mdf.getGenerator().getProperties(mdf));
+        if (recordValidator != null && mdf.getGenerator() instanceof BinaryGenerator) {
+            final FedoraBinary bin = record.getRecordBinary(mdf);
+            if (bin != null && recordValidator.isExcluded(mdf, bin)) {
+                return null;
+            }
         }
+        md.setAny(generateMetadata(mdf, record));
 
-        final RecordType record = this.oaiFactory.createRecordType();
-        record.setMetadata(md);
-        record.setHeader(h);
-        return record;
+        final RecordType rec = this.oaiFactory.createRecordType();
+        rec.setMetadata(md);
+        rec.setHeader(h);
+        return rec;
+    }
+
+    /**
+     * Get the property linking objects to their stored records of a format, the source format's property for
+     * crosswalks
+     *
+     * @return the predicate URI or null if records of the format are generated from any object
+     */
+    private static String getLinkProperty(final MetadataFormat mdf) {
+        if (mdf == null) {
+            return null;
+        }
+        if (mdf.getGenerator() instanceof BinaryGenerator) {
+            return mdf.getPropertyName();
+        }
+        if (mdf.getGenerator() instanceof XsltGenerator) {
+            return mdf.getSource().getPropertyName();
+        }
+        return null;
     }
 
-    private String listResourceQuery(final Session session, final String mixinTypes, final String from,
-        final String until, final String set, final int limit, final int offset) throws RepositoryException {
+    private String listResourceQuery(final Session session, final String mixinTypes, final String linkProperty,
+        final String from, final String until, final String set, final int limit, final String after)
+            throws RepositoryException {
 
         final String propJcrPath = getPropertyName(session,
                 createProperty(RdfLexicon.JCR_NAMESPACE + "path"));
         final String propHasMixinType = getPropertyName(session, RdfLexicon.HAS_MIXIN_TYPE);
         final String propJcrLastModifiedDate = getPropertyName(session, RdfLexicon.LAST_MODIFIED_DATE);
         final StringBuilder jql = new StringBuilder();
-        jql.append("SELECT res.[" + propJcrPath + "] AS sub FROM [" + FedoraTypes.FEDORA_RESOURCE + "] AS [res]");
+        final String propIsPartOfOAISet = getPropertyName(session, createProperty(propertyIsPartOfSet));
+        jql.append("SELECT res.[" + propJcrPath + "] AS sub, res.[" + propJcrLastModifiedDate + "] AS modified, res.["
+                + propIsPartOfOAISet + "] AS sets FROM [" + FedoraTypes.FEDORA_RESOURCE + "] AS [res]");
         jql.append(" WHERE ");
 
         // mixin type constraint
         jql.append("res.[" + propHasMixinType + "] = '" + mixinTypes + "'");
 
+        // record availability constraint, objects without a stored record of the format can not be disseminated
+        if (linkProperty != null) {
+            jql.append(" AND res.[" + getPropertyName(session, createProperty(linkProperty)) + "] IS NOT NULL");
+        }
+
         // start datetime constraint
         if (StringUtils.isNotBlank(from)) {
             jql.append(" AND ");
@@ -1008,26 +1962,128 @@ public class OAIProviderService {
             jql.append("res.[" + propJcrLastModifiedDate + "] <= CAST( '" + until + "' AS DATE)");
         }
 
-        // set constraint
+        // set constraint, which includes the members of all sets nested in the requested set
         if (StringUtils.isNotBlank(set)) {
-            final String predicateIsPartOfOAISet = getPropertyName(session,
-                    createProperty(propertyIsPartOfSet));
             jql.append(" AND ");
-            jql.append("res.[" + predicateIsPartOfOAISet + "] = '" + set + "'");
+            jql.append("(res.[" + propIsPartOfOAISet + "] = '" + quote(set) + "'");
+            jql.append(" OR res.[" + propIsPartOfOAISet + "] LIKE '" + quote(escapeLike(set)) + ":%')");
+        }
+
+        // visibility constraint for anonymous harvesters on pooled internal sessions
+        if (isRestricted(session)) {
+            final String propVisibility = getPropertyName(session, createProperty(propertyVisibility));
+            jql.append(" AND res.[" + propVisibility + "] = '" + quote(visibilityPublic) + "'");
+        }
+
+        // keyset cursor, the page starts after the last object of the previous page in path order
+        if (after != null) {
+            jql.append(" AND res.[" + propJcrPath + "] > CAST('" + quote(after) + "' AS PATH)");
         }
 
         if (limit > 0) {
-            jql.append(" LIMIT ").append(maxListSize)
-                    .append(" OFFSET ").append(offset);
+            jql.append(" ORDER BY res.[").append(propJcrPath).append("]")
+                    .append(" LIMIT ").append(limit);
         }
         return jql.toString();
     }
 
+    /**
+     * Query the resources of a list page, starting after the path of the cursor. Without a partition this is a
+     * single page of the query. With a partition the query's rows are scanned in batches, each starting after the
+     * last path scanned, keeping the resources falling into the partition until the page is full. The cursor of the
+     * next page is the path of the last resource listed.
+     */
+    private ResourcePage queryResources(final Session session, final MetadataFormat mdf, final String from,
+            final String until, final String set, final Partition partition, final String cursor,
+            final HarvestTrace trace) throws RepositoryException {
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        final String linkProperty = getLinkProperty(mdf);
+        final ResourcePage page = new ResourcePage();
+        if (partition == null) {
+            final RowIterator result = executeQuery(queryManager, listResourceQuery(session,
+                    FedoraTypes.FEDORA_CONTAINER, linkProperty, from, until, set, maxListSize, cursor), trace);
+            while (result.hasNext()) {
+                final Row row = result.nextRow();
+                page.rows.add(row);
+                page.subjects.add(row.getValue("sub"));
+            }
+            page.hasMore = page.subjects.size() == maxListSize;
+            if (page.hasMore) {
+                page.nextCursor = page.subjects.get(maxListSize - 1).getString();
+            }
+            return page;
+        }
+
+        final int batchSize = (int) Math.max(maxListSize,
+                Math.min((long) maxListSize * partition.getCount(), MAX_PARTITION_BATCH_SIZE));
+        String position = cursor;
+        while (true) {
+            final RowIterator result = executeQuery(queryManager, listResourceQuery(session,
+                    FedoraTypes.FEDORA_CONTAINER, linkProperty, from, until, set, batchSize, position), trace);
+            int scanned = 0;
+            while (result.hasNext()) {
+                final Row row = result.nextRow();
+                final Value subject = row.getValue("sub");
+                scanned++;
+                position = subject.getString();
+                if (partition.contains(position)) {
+                    page.rows.add(row);
+                    page.subjects.add(subject);
+                    if (page.subjects.size() == maxListSize) {
+                        page.hasMore = true;
+                        page.nextCursor = position;
+                        return page;
+                    }
+                }
+            }
+            if (scanned < batchSize) {
+                return page;
+            }
+        }
+    }
+
+    /**
+     * The subjects of a list page and the cursor of the following page
+     */
+    private static class ResourcePage {
+
+        private final List<Value> subjects = new ArrayList<>();
+
+        private final List<Row> rows = new ArrayList<>();
+
+        private boolean hasMore;
+
+        private String nextCursor;
+    }
+
     private RowIterator executeQuery(final QueryManager queryManager, final String jql)
             throws RepositoryException {
-        final Query query = queryManager.createQuery(jql, Query.JCR_SQL2);
-        final QueryResult results = query.execute();
-        return results.getRows();
+        if (log.isDebugEnabled()) {
+            log.debug("Plan of {}:\n{}", jql, QueryIndexes.explain(queryManager, jql));
+        }
+        try (final Timer.Context timer = queryTimer.time()) {
+            final Query query = queryManager.createQuery(jql, Query.JCR_SQL2);
+            final QueryResult results = query.execute();
+            return results.getRows();
+        }
+    }
+
+    private RowIterator executeQuery(final QueryManager queryManager, final String jql, final HarvestTrace trace)
+            throws RepositoryException {
+        trace.query(jql);
+        try (final HarvestStage stage = trace.stage(HarvestStage.QUERY)) {
+            final RowIterator rows = executeQuery(queryManager, jql);
+            stage.rows((int) rows.getSize());
+            return rows;
+        }
+    }
+
+    private static String quote(final String literal) {
+        return literal.replace("'", "''");
+    }
+
+    private static String escapeLike(final String literal) {
+        return literal.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
     }
 
     private void validateDateTimeFormat(final String dateTime) {
@@ -1036,8 +2092,66 @@ public class OAIProviderService {
         }
     }
 
+    Map<String, MetadataFormat> getMetadataFormats() {
+        return metadataFormats;
+    }
+
+    int getMaxListSize() {
+        return maxListSize;
+    }
+
+    String getSetsRootPath() {
+        return setsRootPath;
+    }
+
     /**
-     * Get a property name for an RDF predicate
+     * List the setSpecs of all sets
+     */
+    List<String> listSetSpecs(final Session session) throws RepositoryException {
+        final List<String> specs = new ArrayList<>();
+        if (!setsEnabled) {
+            return specs;
+        }
+        final String propHasOAISetSpec = getPropertyName(session, createProperty(propertyHasSetSpec));
+        final String jql = "SELECT res.[" + propHasOAISetSpec + "] AS spec FROM [" + FedoraTypes.FEDORA_CONTAINER
+                + "] AS [res] WHERE ISDESCENDANTNODE(res, '" + quote(setsRootPath) + "')"
+                + " AND res.[" + propHasOAISetSpec + "] IS NOT NULL ORDER BY res.[" + propHasOAISetSpec + "]";
+        final RowIterator result = executeQuery(session.getWorkspace().getQueryManager(), jql);
+        while (result.hasNext()) {
+            specs.add(result.nextRow().getValue("spec").getString());
+        }
+        return specs;
+    }
+
+    /**
+     * Check whether any container has been modified since the given time
+     */
+    boolean isModifiedSince(final Session session, final long time) throws RepositoryException {
+        final String propJcrLastModifiedDate = getPropertyName(session, RdfLexicon.LAST_MODIFIED_DATE);
+        final String jql = "SELECT res.[jcr:path] FROM [" + FedoraTypes.FEDORA_CONTAINER + "] AS [res]"
+                + " WHERE res.[" + propJcrLastModifiedDate + "] >= CAST('" + dateFormat.print(time) + "' AS DATE)"
+                + " LIMIT 1";
+        return executeQuery(session.getWorkspace().getQueryManager(), jql).hasNext();
+    }
+
+    Map<String, IdentifyType> getIdentifyCache() {
+        return identifyCache;
+    }
+
+    Map<String, String> getPropertyNames() {
+        return propertyNames;
+    }
+
+    /**
+     * Get the time the sets root holding the repository's description was last modified
+     */
+    long getRootLastModified(final Session session) throws RepositoryException {
+        return this.nodeService.find(session, setsRootPath).getLastModifiedDate().getTime();
+    }
+
+    /**
+     * Get a property name for an RDF predicate. Names are cached, since the prefix of a namespace does not change
+     * once it has been registered.
      * @param session
      * @param predicate
      * @return property name from the given predicate
@@ -1045,10 +2159,15 @@ public class OAIProviderService {
      */
     private String getPropertyName(final Session session, final Property predicate)
             throws RepositoryException {
-
+        final String cached = propertyNames.get(predicate.getURI());
+        if (cached != null) {
+            return cached;
+        }
         final NamespaceRegistry namespaceRegistry =
                 (org.modeshape.jcr.api.NamespaceRegistry) session.getWorkspace().getNamespaceRegistry();
         final Map<String, String> namespaceMapping = emptyMap();
-        return getPropertyNameFromPredicate(namespaceRegistry, predicate, namespaceMapping);
+        final String name = getPropertyNameFromPredicate(namespaceRegistry, predicate, namespaceMapping);
+        propertyNames.put(predicate.getURI(), name);
+        return name;
     }
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import org.openarchives.oai._2.IdentifyType;
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.SetType;
+import org.openarchives.oai._2_0.oai_dc.OaiDcType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The JAXB context of all OAI and Dublin Core types, created once on first use and shared by all components.
+ * Contexts are thread safe, marshallers and unmarshallers have to be created per use.
+ *
+ * @author agent
+ */
+public final class OaiJaxbContext {
+
+    private static final Logger log = LoggerFactory.getLogger(OaiJaxbContext.class);
+
+    private static volatile JAXBContext context;
+
+    private OaiJaxbContext() {
+    }
+
+    /**
+     * Get the shared context, creating it if this is the first use
+     *
+     * @return the context
+     * @throws JAXBException if the context can not be created
+     */
+    public static JAXBContext get() throws JAXBException {
+        JAXBContext ctx = context;
+        if (ctx == null) {
+            synchronized (OaiJaxbContext.class) {
+                ctx = context;
+                if (ctx == null) {
+                    final long start = System.currentTimeMillis();
+                    ctx = JAXBContext.newInstance(OAIPMHtype.class, IdentifyType.class, SetType.class,
+                            OaiDcType.class);
+                    log.info("Created OAI JAXB context in {} ms", System.currentTimeMillis() - start);
+                    context = ctx;
+                }
+            }
+        }
+        return ctx;
+    }
+}
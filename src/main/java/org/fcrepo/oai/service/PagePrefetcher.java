@@ -0,0 +1,356 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fcrepo.metrics.RegistryService.getInstance;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.xml.bind.JAXBElement;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.oai.http.AdmissionController;
+import org.openarchives.oai._2.HeaderType;
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.RecordType;
+import org.openarchives.oai._2.RequestType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * Computes the page following a freshly issued resumption token in the background, so that the harvester's
+ * follow-up request can be answered from memory. Pages are kept for a short time only and prefetching is
+ * skipped while the prefetch pool is busy or the {@link AdmissionController} reports load. Taking a page which
+ * carries a resumption token itself starts prefetching the page following it, so a harvester walking the list is
+ * served from memory from its second page on.
+ *
+ * Prefetched pages are assembled using an internal session and handed out only to the user whose request
+ * issued the token. The service only prefetches for requests which may read all objects, so the internal session
+ * does not reveal objects hidden from the user.
+ *
+ * @author agent
+ */
+public class PagePrefetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(PagePrefetcher.class);
+
+    static final Counter skippedCounter = getInstance().getMetrics().counter(
+            name(PagePrefetcher.class, "skipped"));
+
+    /* the number of objects changed while a page loads after which the page is dropped without checking */
+    private static final int MAX_CHANGED = 1000;
+
+    private final Map<String, Page> pages = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    private int threads = 2;
+
+    private int queueSize = 4;
+
+    private int maxPages = 64;
+
+    private long ttl = 60000;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired(required = false)
+    private AdmissionController admissionController;
+
+    @Autowired(required = false)
+    private InvalidationBus invalidationBus;
+
+    /**
+     * Loads a page of an OAI list response
+     */
+    @FunctionalInterface
+    public interface PageLoader {
+
+        /**
+         * Load the page
+         *
+         * @param session the session used to load the page
+         * @return the page
+         * @throws RepositoryException if the page could not be loaded
+         */
+        JAXBElement<OAIPMHtype> load(Session session) throws RepositoryException;
+    }
+
+    /**
+     * Creates the loaders of the pages of an OAI list response
+     */
+    @FunctionalInterface
+    public interface PageSource {
+
+        /**
+         * Get the loader of a page
+         *
+         * @param token the resumption token pointing to the page
+         * @return the loader of the page
+         */
+        PageLoader loader(String token);
+    }
+
+    /**
+     * Sets the number of threads prefetching pages.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(final int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of prefetches which may wait for a thread.
+     *
+     * @param queueSize the size of the queue
+     */
+    public void setQueueSize(final int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Sets the maximum number of pages kept in memory.
+     *
+     * @param maxPages the maximum number of pages
+     */
+    public void setMaxPages(final int maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Sets the time in milliseconds a prefetched page is kept.
+     *
+     * @param ttl the time to live in milliseconds
+     */
+    public void setTtl(final long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Start the prefetching threads
+     */
+    @PostConstruct
+    public void init() {
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    final Thread t = new Thread(r, "oai-prefetch");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        if (invalidationBus != null) {
+            invalidationBus.subscribe(this::invalidate);
+        }
+    }
+
+    /**
+     * Stop the prefetching threads
+     */
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+        pages.clear();
+    }
+
+    /**
+     * Load the page a resumption token points to in the background.
+     *
+     * @param userId the id of the user the token was issued to
+     * @param token the resumption token
+     * @param identifiers maps the path of a changed object to its OAI identifier in the page's headers
+     * @param source the source of the page and of the pages following it
+     * @return the future of the page or null if prefetching was skipped
+     */
+    public Future<JAXBElement<OAIPMHtype>> prefetch(final String userId, final String token,
+            final Function<String, String> identifiers, final PageSource source) {
+        evictExpired();
+        if (pages.size() >= maxPages || (admissionController != null
+                && (admissionController.isSaturated() || admissionController.isUnderPressure()))) {
+            skippedCounter.inc();
+            return null;
+        }
+        final PageLoader loader = source.loader(token);
+        try {
+            final Future<JAXBElement<OAIPMHtype>> future = executor.submit(() -> {
+                final Session session = sessionFactory.getInternalSession();
+                try {
+                    return loader.load(session);
+                } finally {
+                    session.logout();
+                }
+            });
+            pages.put(key(userId, token), new Page(future, System.currentTimeMillis() + ttl, identifiers, source));
+            return future;
+        } catch (final RejectedExecutionException e) {
+            skippedCounter.inc();
+            return null;
+        }
+    }
+
+    /**
+     * Remove a prefetched page, waiting for it if it is still being loaded. If the page carries a resumption token
+     * the page following it is prefetched before the page is returned.
+     *
+     * @param userId the id of the user requesting the page
+     * @param token the resumption token
+     * @return the page or null if none was prefetched or loading it failed
+     */
+    public JAXBElement<OAIPMHtype> take(final String userId, final String token) {
+        final Page page = pages.remove(key(userId, token));
+        if (page == null || page.expires < System.currentTimeMillis()) {
+            OAIProviderService.cacheMissMeter.mark();
+            return null;
+        }
+        try {
+            final JAXBElement<OAIPMHtype> result = page.future.get(ttl, TimeUnit.MILLISECONDS);
+            if (!containsAny(result.getValue(), page.changed, page.identifiers)) {
+                OAIProviderService.cacheHitMeter.mark();
+                final RequestType request = result.getValue().getRequest();
+                if (request != null && request.getResumptionToken() != null) {
+                    prefetch(userId, request.getResumptionToken(), page.identifiers, page.source);
+                }
+                return result;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException | TimeoutException e) {
+            log.warn("Unable to prefetch OAI page", e);
+            page.future.cancel(true);
+        }
+        OAIProviderService.cacheMissMeter.mark();
+        return null;
+    }
+
+    /**
+     * Drop the loaded pages holding a changed object. Pages still being loaded remember the change and are checked
+     * for the object once they are taken.
+     */
+    private void invalidate(final Invalidation invalidation) {
+        if (invalidation.getScope() != Invalidation.Scope.OBJECT) {
+            return;
+        }
+        final String path = invalidation.getPath();
+        final Iterator<Page> it = pages.values().iterator();
+        while (it.hasNext()) {
+            final Page page = it.next();
+            if (!page.future.isDone()) {
+                page.changed.add(path);
+                if (page.changed.size() <= MAX_CHANGED) {
+                    continue;
+                }
+            } else if (!contains(page, path)) {
+                continue;
+            }
+            page.future.cancel(true);
+            it.remove();
+        }
+    }
+
+    private static boolean contains(final Page page, final String path) {
+        try {
+            return contains(page.future.get().getValue(), page.identifiers.apply(path));
+        } catch (final InterruptedException | ExecutionException | CancellationException e) {
+            return false;
+        }
+    }
+
+    private static boolean containsAny(final OAIPMHtype oai, final Set<String> paths,
+            final Function<String, String> identifiers) {
+        for (final String path : paths) {
+            if (contains(oai, identifiers.apply(path))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(final OAIPMHtype oai, final String identifier) {
+        if (oai.getListRecords() != null) {
+            for (final RecordType record : oai.getListRecords().getRecord()) {
+                if (identifier.equals(record.getHeader().getIdentifier())) {
+                    return true;
+                }
+            }
+        }
+        if (oai.getListIdentifiers() != null) {
+            for (final HeaderType header : oai.getListIdentifiers().getHeader()) {
+                if (identifier.equals(header.getIdentifier())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void evictExpired() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Page> it = pages.values().iterator();
+        while (it.hasNext()) {
+            final Page page = it.next();
+            if (page.expires < now) {
+                page.future.cancel(true);
+                it.remove();
+            }
+        }
+    }
+
+    private static String key(final String userId, final String token) {
+        return userId + " " + token;
+    }
+
+    private static class Page {
+
+        private final Future<JAXBElement<OAIPMHtype>> future;
+
+        private final long expires;
+
+        private final Function<String, String> identifiers;
+
+        private final PageSource source;
+
+        private final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+        Page(final Future<JAXBElement<OAIPMHtype>> future, final long expires,
+                final Function<String, String> identifiers, final PageSource source) {
+            this.future = future;
+            this.expires = expires;
+            this.identifiers = identifiers;
+            this.source = source;
+        }
+    }
+}
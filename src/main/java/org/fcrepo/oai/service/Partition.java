@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+/**
+ * One of <code>n</code> disjoint partitions of a list request's result, given as <code>k/n</code> with
+ * <code>0 &lt;= k &lt; n</code>. Resources are assigned to a partition by the hash of their path, so the partitions
+ * of a request can be harvested in parallel and together cover the whole result.
+ *
+ * @author agent
+ */
+public class Partition {
+
+    /**
+     * The maximum number of partitions of a request
+     */
+    public static final int MAX_COUNT = 1024;
+
+    private final int index;
+
+    private final int count;
+
+    /**
+     * Create a new partition
+     *
+     * @param index the index of the partition
+     * @param count the number of partitions, at most {@link #MAX_COUNT}
+     */
+    public Partition(final int index, final int count) {
+        if (count < 1 || count > MAX_COUNT || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid partition " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Parse a partition
+     *
+     * @param value the partition as <code>k/n</code>
+     * @return the partition or null if the value is empty
+     * @throws IllegalArgumentException if the value is not a valid partition
+     */
+    public static Partition parse(final String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        final int slash = value.indexOf('/');
+        if (slash < 1) {
+            throw new IllegalArgumentException("Invalid partition " + value);
+        }
+        try {
+            return new Partition(Integer.parseInt(value.substring(0, slash)),
+                    Integer.parseInt(value.substring(slash + 1)));
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid partition " + value, e);
+        }
+    }
+
+    /**
+     * Check whether a resource falls into this partition
+     *
+     * @param path the path of the resource
+     * @return true if the resource is part of this partition
+     */
+    public boolean contains(final String path) {
+        return Math.floorMod(path.hashCode(), count) == index;
+    }
+
+    /**
+     * Gets the number of partitions.
+     *
+     * @return the number of partitions
+     */
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
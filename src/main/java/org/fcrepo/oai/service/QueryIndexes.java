@@ -0,0 +1,192 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+
+import org.modeshape.jcr.api.Workspace;
+import org.modeshape.jcr.api.index.IndexColumnDefinition;
+import org.modeshape.jcr.api.index.IndexColumnDefinitionTemplate;
+import org.modeshape.jcr.api.index.IndexDefinition;
+import org.modeshape.jcr.api.index.IndexDefinitionTemplate;
+import org.modeshape.jcr.api.index.IndexManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the ModeShape index definitions backing the provider's list queries and explains the plans of queries,
+ * so it can be checked whether they are answered from an index or by scanning all nodes.
+ *
+ * @author agent
+ */
+final class QueryIndexes {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryIndexes.class);
+
+    private final String nodeType;
+
+    private final Map<String, Map<String, Integer>> indexes = new LinkedHashMap<>();
+
+    private final Map<String, String> fallbacks = new LinkedHashMap<>();
+
+    /**
+     * Create the definitions of indexes over the properties of a node type
+     *
+     * @param nodeType the node type the queries select from
+     */
+    QueryIndexes(final String nodeType) {
+        this.nodeType = nodeType;
+    }
+
+    /**
+     * Add an index over one or more properties, given by JCR name and {@link javax.jcr.PropertyType}
+     */
+    QueryIndexes add(final String name, final Map<String, Integer> columns) {
+        indexes.put(name, columns);
+        return this;
+    }
+
+    /**
+     * Add a multi column index and the single column index registered instead if the provider does not support
+     * multi column indexes
+     */
+    QueryIndexes add(final String name, final Map<String, Integer> columns, final String fallbackName,
+            final Map<String, Integer> fallbackColumns) {
+        indexes.put(name, columns);
+        fallbacks.put(name, fallbackName);
+        indexes.put(fallbackName, fallbackColumns);
+        return this;
+    }
+
+    /**
+     * Get the names of the defined indexes
+     */
+    Set<String> getNames() {
+        return indexes.keySet();
+    }
+
+    /**
+     * Register the indexes which are not defined yet
+     *
+     * @param session the session
+     * @param providerName the index provider, or null for the first provider configured in the repository
+     * @return the names of the indexes registered by this call
+     * @throws RepositoryException if the index definitions can not be read
+     */
+    List<String> provision(final Session session, final String providerName) throws RepositoryException {
+        final List<String> registered = new ArrayList<>();
+        final IndexManager indexManager = ((Workspace) session.getWorkspace()).getIndexManager();
+        final Set<String> providers = indexManager.getProviderNames();
+        final String provider = providerName != null ? providerName
+                : providers.isEmpty() ? null : providers.iterator().next();
+        if (provider == null || !providers.contains(provider)) {
+            log.warn("No index provider {} configured in the repository, OAI list queries scan all nodes",
+                    provider == null ? "" : provider);
+            return registered;
+        }
+
+        final Map<String, IndexDefinition> existing = indexManager.getIndexDefinitions();
+        for (final Map.Entry<String, Map<String, Integer>> index : indexes.entrySet()) {
+            final String name = index.getKey();
+            if (existing.containsKey(name) || fallbacks.containsValue(name)) {
+                continue;
+            }
+            final String fallback = fallbacks.get(name);
+            try {
+                indexManager.registerIndex(definition(indexManager, provider, name, index.getValue()), false);
+                registered.add(name);
+                log.info("Registered index {} with provider {}", name, provider);
+            } catch (final RepositoryException e) {
+                if (fallback == null) {
+                    log.warn("Unable to register index {} with provider {}", name, provider, e);
+                    continue;
+                }
+                log.info("Provider {} does not accept the index {}, registering {} instead: {}", provider, name,
+                        fallback, e.getMessage());
+                if (!existing.containsKey(fallback)) {
+                    try {
+                        indexManager.registerIndex(definition(indexManager, provider, fallback,
+                                indexes.get(fallback)), false);
+                        registered.add(fallback);
+                    } catch (final RepositoryException e2) {
+                        log.warn("Unable to register index {} with provider {}", fallback, provider, e2);
+                    }
+                }
+            }
+        }
+        return registered;
+    }
+
+    private IndexDefinition definition(final IndexManager indexManager, final String provider, final String name,
+            final Map<String, Integer> columns) {
+        final List<IndexColumnDefinition> columnDefinitions = new ArrayList<>(columns.size());
+        for (final Map.Entry<String, Integer> column : columns.entrySet()) {
+            final IndexColumnDefinitionTemplate columnDefinition = indexManager.createIndexColumnDefinitionTemplate();
+            columnDefinition.setPropertyName(column.getKey());
+            columnDefinition.setColumnType(column.getValue());
+            columnDefinitions.add(columnDefinition);
+        }
+        final IndexDefinitionTemplate definition = indexManager.createIndexDefinitionTemplate();
+        definition.setName(name);
+        definition.setProviderName(provider);
+        definition.setKind(IndexDefinition.IndexKind.VALUE);
+        definition.setNodeTypeName(nodeType);
+        definition.setDescription("OAI provider index over " + columns.keySet());
+        definition.setSynchronous(true);
+        definition.setColumnDefinitions(columnDefinitions);
+        return definition;
+    }
+
+    /**
+     * Get the plan ModeShape chose for a query
+     *
+     * @param queryManager the query manager
+     * @param jql the JCR-SQL2 query
+     * @return the plan or null if the repository can not explain queries
+     * @throws RepositoryException if the query is invalid
+     */
+    static String explain(final QueryManager queryManager, final String jql) throws RepositoryException {
+        final Query query = queryManager.createQuery(jql, Query.JCR_SQL2);
+        if (query instanceof org.modeshape.jcr.api.query.Query) {
+            return ((org.modeshape.jcr.api.query.Query) query).explain().getPlan();
+        }
+        return null;
+    }
+
+    /**
+     * Get the defined indexes a plan uses
+     */
+    List<String> getUsedIndexes(final String plan) {
+        final List<String> used = new ArrayList<>();
+        if (plan != null) {
+            for (final String name : indexes.keySet()) {
+                if (plan.contains(name)) {
+                    used.add(name);
+                }
+            }
+        }
+        return used;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.api.rdf.HttpResourceConverter;
+import org.fcrepo.kernel.api.models.Container;
+import org.fcrepo.kernel.api.models.FedoraBinary;
+import org.fcrepo.kernel.api.services.BinaryService;
+import org.fcrepo.kernel.api.utils.iterators.RdfStream;
+import org.fcrepo.kernel.modeshape.rdf.impl.PropertiesRdfContext;
+import org.fcrepo.oai.trace.HarvestTrace;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+
+/**
+ * The object a record is generated for, along with the values of the properties requested by the generators
+ *
+ * @author agent
+ */
+public class RecordContext {
+
+    private final Session session;
+
+    private final Container container;
+
+    private final HttpResourceConverter converter;
+
+    private final HarvestTrace trace;
+
+    private final BinaryService binaryService;
+
+    private final BinaryCache binaryCache;
+
+    private final Map<String, List<Node>> properties = new LinkedHashMap<>();
+
+    /**
+     * Read the object's properties in a single pass
+     *
+     * @param session the session
+     * @param container the object
+     * @param converter the converter for the session
+     * @param trace the trace of the request
+     * @param binaryService the binary service used to resolve stored records
+     * @param binaryCache the cache stored records are read through or null to read them from the repository
+     * @param predicates the properties to collect or null to collect all properties
+     * @throws RepositoryException the repository exception
+     */
+    RecordContext(final Session session, final Container container, final HttpResourceConverter converter,
+            final HarvestTrace trace, final BinaryService binaryService, final BinaryCache binaryCache,
+            final Set<String> predicates) throws RepositoryException {
+        this.session = session;
+        this.container = container;
+        this.converter = converter;
+        this.trace = trace;
+        this.binaryService = binaryService;
+        this.binaryCache = binaryCache;
+        if (predicates == null || !predicates.isEmpty()) {
+            final RdfStream triples = container.getTriples(converter, PropertiesRdfContext.class);
+            while (triples.hasNext()) {
+                final Triple triple = triples.next();
+                final String predicate = triple.getPredicate().getURI();
+                if (predicates == null || predicates.contains(predicate)) {
+                    properties.computeIfAbsent(predicate, p -> new ArrayList<>()).add(triple.getObject());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets session.
+     *
+     * @return the session
+     */
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Gets the object the record is generated for.
+     *
+     * @return the container
+     */
+    public Container getContainer() {
+        return container;
+    }
+
+    /**
+     * Gets converter.
+     *
+     * @return the converter
+     */
+    public HttpResourceConverter getConverter() {
+        return converter;
+    }
+
+    /**
+     * Gets the trace of the request.
+     *
+     * @return the trace
+     */
+    public HarvestTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Gets the collected properties in the order they were read.
+     *
+     * @return the values keyed by the property URI
+     */
+    public Map<String, List<Node>> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
+    /**
+     * Gets the values of a property.
+     *
+     * @param predicate the property URI
+     * @return the values, empty if the property has not been collected
+     */
+    public List<Node> getValues(final String predicate) {
+        final List<Node> values = properties.get(predicate);
+        return values == null ? Collections.<Node>emptyList() : values;
+    }
+
+    /**
+     * Resolve the binary holding the stored record of a format, which is linked from the object by the format's
+     * property.
+     *
+     * @param format the metadata format
+     * @return the binary or null if the object has no record of the format
+     * @throws RepositoryException the repository exception
+     */
+    public FedoraBinary getRecordBinary(final MetadataFormat format) throws RepositoryException {
+        final List<Node> values = getValues(format.getPropertyName());
+        if (values.isEmpty()) {
+            return null;
+        }
+        return binaryService.findOrCreate(session, "/" + values.get(0).getLiteralLexicalForm());
+    }
+
+    /**
+     * Open the content of the stored record of a format, reading it through the binary cache if one is configured
+     *
+     * @param format the metadata format
+     * @return the record's content or null if the object has no record of the format
+     * @throws RepositoryException the repository exception
+     * @throws IOException if the content can not be read
+     */
+    public InputStream openRecord(final MetadataFormat format) throws RepositoryException, IOException {
+        final FedoraBinary binary = getRecordBinary(format);
+        if (binary == null) {
+            return null;
+        }
+        return binaryCache == null ? binary.getContent() : binaryCache.open(binary);
+    }
+}
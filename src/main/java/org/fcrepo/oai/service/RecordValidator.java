@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.fcrepo.metrics.RegistryService.getInstance;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Validator;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.api.models.FedoraBinary;
+import org.fcrepo.kernel.api.services.BinaryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.xml.sax.SAXException;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * Validates stored records against their format's schema in the background. Verdicts are cached by the content
+ * digest of the record's binary, so a record is served unchecked until its verdict is known and never waits for
+ * validation. Invalid records are counted and logged, and optionally excluded from responses.
+ *
+ * Records are read using an internal session.
+ *
+ * @author agent
+ */
+public class RecordValidator {
+
+    private static final Logger log = LoggerFactory.getLogger(RecordValidator.class);
+
+    static final Counter invalidCounter = getInstance().getMetrics().counter(
+            name(RecordValidator.class, "invalid-records"));
+
+    static final Counter skippedCounter = getInstance().getMetrics().counter(
+            name(RecordValidator.class, "skipped"));
+
+    private final Map<String, Future<?>> pending = new ConcurrentHashMap<>();
+
+    private Map<String, Boolean> verdicts;
+
+    private ThreadPoolExecutor executor;
+
+    private int threads = 1;
+
+    private int queueSize = 64;
+
+    private int cacheSize = 10000;
+
+    private boolean excludeInvalid;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired
+    private BinaryService binaryService;
+
+    /**
+     * Sets the number of threads validating records.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(final int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of records which may wait for validation.
+     *
+     * @param queueSize the size of the queue
+     */
+    public void setQueueSize(final int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Sets the maximum number of cached verdicts.
+     *
+     * @param cacheSize the size of the cache
+     */
+    public void setCacheSize(final int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Sets whether records known to be invalid are left out of responses.
+     *
+     * @param excludeInvalid true to exclude invalid records
+     */
+    public void setExcludeInvalid(final boolean excludeInvalid) {
+        this.excludeInvalid = excludeInvalid;
+    }
+
+    /**
+     * Start the validating threads
+     */
+    @PostConstruct
+    public void init() {
+        this.verdicts = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    final Thread t = new Thread(r, "oai-validation");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Stop the validating threads
+     */
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Check whether a stored record has to be left out of a response. Records without a verdict are scheduled for
+     * validation and served, and so are all records of a format whose schema could not be compiled.
+     *
+     * @param format the record's metadata format
+     * @param binary the binary holding the record
+     * @return true if the record is known to be invalid and invalid records are excluded
+     * @throws RepositoryException the repository exception
+     */
+    public boolean isExcluded(final MetadataFormat format, final FedoraBinary binary) throws RepositoryException {
+        final URI digest = binary.getContentDigest();
+        if (digest == null || (format.getSchemaLocation() == null && format.getSchemaUrl() == null)
+                || format.isSchemaUnavailable()) {
+            return false;
+        }
+        final String key = format.getPrefix() + " " + digest;
+        final Boolean valid = verdicts.get(key);
+        if (valid == null) {
+            schedule(key, format, binary.getPath());
+            return false;
+        }
+        if (!valid) {
+            invalidCounter.inc();
+            log.warn("The {} record {} does not validate against {}", format.getPrefix(), binary.getPath(),
+                    format.getSchemaUrl());
+        }
+        return !valid && excludeInvalid;
+    }
+
+    /**
+     * Get a copy of the cached verdicts, keyed by the format's prefix and the record's content digest
+     */
+    Map<String, Boolean> getVerdicts() {
+        synchronized (verdicts) {
+            return new LinkedHashMap<>(verdicts);
+        }
+    }
+
+    /**
+     * Get the validation of a record which is queued or running, keyed like the verdicts
+     */
+    Future<?> getPending(final String key) {
+        return pending.get(key);
+    }
+
+    /**
+     * Check whether any validation is queued or running
+     */
+    boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Restore a verdict cached by a previous run
+     */
+    void restoreVerdict(final String key, final boolean valid) {
+        verdicts.put(key, valid);
+    }
+
+    private void schedule(final String key, final MetadataFormat format, final String path) {
+        final FutureTask<Void> task = new FutureTask<>(() -> {
+            try {
+                verdicts.put(key, validate(format, path));
+            } catch (final IOException | RepositoryException e) {
+                log.warn("Unable to validate the {} record {}", format.getPrefix(), path, e);
+            } finally {
+                pending.remove(key);
+            }
+        }, null);
+        if (pending.putIfAbsent(key, task) != null) {
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (final RejectedExecutionException e) {
+            pending.remove(key);
+            skippedCounter.inc();
+        }
+    }
+
+    private boolean validate(final MetadataFormat format, final String path) throws IOException,
+            RepositoryException {
+        final Validator validator = format.getSchema().newValidator();
+        try {
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        } catch (final SAXException e) {
+            log.debug("The validator does not restrict access to external DTDs", e);
+        }
+        final Session session = sessionFactory.getInternalSession();
+        try (final InputStream src = binaryService.findOrCreate(session, path).getContent()) {
+            validator.validate(new StreamSource(src));
+            return true;
+        } catch (final SAXException e) {
+            log.debug("The {} record {} is invalid: {}", format.getPrefix(), path, e.getMessage());
+            return false;
+        } finally {
+            session.logout();
+        }
+    }
+}
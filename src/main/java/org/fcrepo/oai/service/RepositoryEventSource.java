@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static javax.jcr.observation.Event.NODE_ADDED;
+import static javax.jcr.observation.Event.NODE_MOVED;
+import static javax.jcr.observation.Event.NODE_REMOVED;
+import static javax.jcr.observation.Event.PROPERTY_ADDED;
+import static javax.jcr.observation.Event.PROPERTY_CHANGED;
+import static javax.jcr.observation.Event.PROPERTY_REMOVED;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Turns JCR observation events into {@link Invalidation}s published on the {@link InvalidationBus}. Changes below
+ * the sets root invalidate the set, changes of the sets root itself the repository description and all other
+ * changes the object. Since all nodes sharing a clustered ModeShape store receive the store's events, each node's
+ * caches follow the changes made on the others.
+ *
+ * @author agent
+ */
+public class RepositoryEventSource implements EventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(RepositoryEventSource.class);
+
+    private static final int EVENT_TYPES = NODE_ADDED | NODE_REMOVED | NODE_MOVED | PROPERTY_ADDED
+            | PROPERTY_CHANGED | PROPERTY_REMOVED;
+
+    private Session session;
+
+    @Autowired
+    private InvalidationBus invalidationBus;
+
+    @Autowired
+    private OAIProviderService providerService;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    /**
+     * Start listening for repository events
+     *
+     * @throws RepositoryException if the listener can not be registered
+     */
+    @PostConstruct
+    public void init() throws RepositoryException {
+        this.session = sessionFactory.getInternalSession();
+        session.getWorkspace().getObservationManager().addEventListener(this, EVENT_TYPES, "/", true, null, null,
+                false);
+    }
+
+    /**
+     * Stop listening for repository events
+     *
+     * @throws RepositoryException if the listener can not be removed
+     */
+    @PreDestroy
+    public void destroy() throws RepositoryException {
+        final ObservationManager observationManager = session.getWorkspace().getObservationManager();
+        observationManager.removeEventListener(this);
+        session.logout();
+    }
+
+    @Override
+    public void onEvent(final EventIterator events) {
+        /* a save usually yields many events for the same node, publish each node once */
+        final Set<String> paths = new LinkedHashSet<>();
+        while (events.hasNext()) {
+            final Event event = events.nextEvent();
+            try {
+                final String path = event.getPath();
+                if (path.startsWith("/jcr:system")) {
+                    continue;
+                }
+                if ((event.getType() & (PROPERTY_ADDED | PROPERTY_CHANGED | PROPERTY_REMOVED)) != 0) {
+                    final int slash = path.lastIndexOf('/');
+                    paths.add(slash > 0 ? path.substring(0, slash) : "/");
+                } else {
+                    paths.add(path);
+                }
+            } catch (final RepositoryException e) {
+                log.warn("Unable to read the path of a repository event", e);
+            }
+        }
+
+        final String setsRootPath = providerService.getSetsRootPath();
+        for (final String path : paths) {
+            if (path.equals(setsRootPath)) {
+                invalidationBus.publish(new Invalidation(Invalidation.Scope.ROOT, path));
+            } else if (path.startsWith(setsRootPath + "/")) {
+                invalidationBus.publish(new Invalidation(Invalidation.Scope.SET, path));
+            } else {
+                invalidationBus.publish(new Invalidation(Invalidation.Scope.OBJECT, path));
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.fcrepo.oai.http.ResumptionToken;
+import org.openarchives.oai._2.VerbType;
+
+/**
+ * Encodes resumption tokens as a version byte followed by the token's fields as varints and length prefixed
+ * strings, signed with a truncated HMAC-SHA256. Tokens carry all the state needed to resume a harvest, so any node
+ * sharing the key can resume it, and tokens which were forged or corrupted are rejected before they are used.
+ *
+ * @author agent
+ */
+public class ResumptionTokenCodec {
+
+    private static final byte VERSION = 2;
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final int SIGNATURE_LENGTH = 16;
+
+    private final SecretKeySpec key;
+
+    private final long ttl;
+
+    /**
+     * Create a new codec
+     *
+     * @param key the key the tokens are signed with
+     * @param ttl the time in milliseconds after the start of a harvest its tokens expire, or 0 if they never expire
+     */
+    public ResumptionTokenCodec(final byte[] key, final long ttl) {
+        this.key = new SecretKeySpec(key, ALGORITHM);
+        this.ttl = ttl;
+    }
+
+    /**
+     * Encode a resumption token
+     *
+     * @param token the token
+     * @return the signed, base64 encoded token
+     */
+    public String encode(final ResumptionToken token) {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream(64);
+        data.write(VERSION);
+        writeVarint(data, VerbType.fromValue(token.getVerb()).ordinal());
+        writeString(data, token.getMetadataPrefix());
+        writeString(data, token.getFrom());
+        writeString(data, token.getUntil());
+        writeString(data, token.getSet());
+        writeString(data, token.getPartition());
+        writeString(data, token.getCursor());
+        writeVarint(data, token.getHarvestStart());
+        final byte[] body = data.toByteArray();
+        final byte[] signature = sign(body);
+        data.write(signature, 0, SIGNATURE_LENGTH);
+        return Base64.encodeBase64URLSafeString(data.toByteArray());
+    }
+
+    /**
+     * Decode a resumption token
+     *
+     * @param token the signed, base64 encoded token
+     * @return the resumption token
+     * @throws IllegalArgumentException if the token is malformed, its signature does not match or it expired
+     */
+    public ResumptionToken decode(final String token) {
+        final byte[] data = Base64.decodeBase64(token);
+        if (data.length <= SIGNATURE_LENGTH + 1 || data[0] != VERSION) {
+            throw new IllegalArgumentException("Unknown resumption token format");
+        }
+        final byte[] body = Arrays.copyOf(data, data.length - SIGNATURE_LENGTH);
+        final byte[] signature = Arrays.copyOfRange(data, body.length, data.length);
+        if (!MessageDigest.isEqual(signature, Arrays.copyOf(sign(body), SIGNATURE_LENGTH))) {
+            throw new IllegalArgumentException("Invalid resumption token signature");
+        }
+        try {
+            final ByteBuffer buf = ByteBuffer.wrap(body, 1, body.length - 1);
+            final VerbType verb = VerbType.values()[(int) readVarint(buf)];
+            final String metadataPrefix = readString(buf);
+            final String from = readString(buf);
+            final String until = readString(buf);
+            final String set = readString(buf);
+            final String partition = readString(buf);
+            final String cursor = readString(buf);
+            final long harvestStart = readVarint(buf);
+            if (buf.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing data in resumption token");
+            }
+            if (ttl > 0 && harvestStart + ttl < System.currentTimeMillis()) {
+                throw new IllegalArgumentException("Resumption token expired");
+            }
+            return new ResumptionToken(verb.value(), metadataPrefix, from, until, cursor, set, partition,
+                    harvestStart);
+        } catch (final BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed resumption token", e);
+        }
+    }
+
+    private byte[] sign(final byte[] body) {
+        try {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(body);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, final long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarint(final ByteBuffer buf) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in resumption token");
+    }
+
+    /**
+     * Strings are written as their length plus one, so that null and the empty string can be told apart
+     */
+    private static void writeString(final ByteArrayOutputStream out, final String value) {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        final byte[] bytes = value.getBytes(UTF_8);
+        writeVarint(out, bytes.length + 1L);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(final ByteBuffer buf) {
+        final long length = readVarint(buf) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > buf.remaining()) {
+            throw new IllegalArgumentException("Malformed string in resumption token");
+        }
+        final byte[] bytes = new byte[(int) length];
+        buf.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * A pool of long lived internal sessions answering anonymous harvest requests, which saves the setup and access
+ * checks of a session per request. Internal sessions can read every object, so the {@link OAIProviderService}
+ * restricts requests on pooled sessions to the objects marked public by its <code>propertyVisibility</code>.
+ * Sessions are refreshed when they are borrowed after <code>refreshInterval</code> milliseconds.
+ *
+ * @author agent
+ */
+public class SessionPool {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionPool.class);
+
+    private final Map<Session, Long> refreshed = new ConcurrentHashMap<>();
+
+    private BlockingQueue<Session> idle;
+
+    private int size = 4;
+
+    private long refreshInterval = 60000;
+
+    private long borrowTimeout = 1000;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    /**
+     * Sets the number of pooled sessions.
+     *
+     * @param size the number of sessions
+     */
+    public void setSize(final int size) {
+        this.size = size;
+    }
+
+    /**
+     * Sets the time in milliseconds after which a session is refreshed.
+     *
+     * @param refreshInterval the refresh interval in milliseconds
+     */
+    public void setRefreshInterval(final long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Sets the time in milliseconds a request waits for a pooled session before it uses its own session.
+     *
+     * @param borrowTimeout the timeout in milliseconds
+     */
+    public void setBorrowTimeout(final long borrowTimeout) {
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    /**
+     * Open the pooled sessions
+     */
+    @PostConstruct
+    public void init() {
+        this.idle = new ArrayBlockingQueue<>(size);
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            final Session session = sessionFactory.getInternalSession();
+            refreshed.put(session, now);
+            idle.add(session);
+        }
+    }
+
+    /**
+     * Close the pooled sessions
+     */
+    @PreDestroy
+    public void destroy() {
+        for (final Session session : refreshed.keySet()) {
+            session.logout();
+        }
+        refreshed.clear();
+        idle.clear();
+    }
+
+    /**
+     * Borrow a session, which has to be released after use
+     *
+     * @return the session or null if none became available in time
+     * @throws RepositoryException if the session could not be refreshed
+     */
+    public Session borrow() throws RepositoryException {
+        final Session session;
+        try {
+            session = idle.poll(borrowTimeout, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (session == null) {
+            log.debug("No pooled session available within {} ms", borrowTimeout);
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - refreshed.get(session) > refreshInterval) {
+            try {
+                session.refresh(false);
+            } catch (final RepositoryException e) {
+                idle.add(session);
+                throw e;
+            }
+            refreshed.put(session, now);
+        }
+        return session;
+    }
+
+    /**
+     * Return a borrowed session to the pool
+     *
+     * @param session the session
+     */
+    public void release(final Session session) {
+        idle.add(session);
+    }
+
+    /**
+     * Check whether a session belongs to this pool
+     *
+     * @param session the session
+     * @return true if the session is a pooled session
+     */
+    public boolean isPooled(final Session session) {
+        return refreshed.containsKey(session);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+/**
+ * The outcome of creating a single OAI set in a batch
+ *
+ * @author agent
+ */
+public class SetResult {
+
+    private final String setSpec;
+
+    private final String path;
+
+    private final String error;
+
+    private final boolean conflict;
+
+    private SetResult(final String setSpec, final String path, final String error, final boolean conflict) {
+        this.setSpec = setSpec;
+        this.path = path;
+        this.error = error;
+        this.conflict = conflict;
+    }
+
+    /**
+     * Create the result of a set which has been created
+     *
+     * @param setSpec the set's setSpec
+     * @param path the path of the set's container
+     * @return the result
+     */
+    public static SetResult created(final String setSpec, final String path) {
+        return new SetResult(setSpec, path, null, false);
+    }
+
+    /**
+     * Create the result of a set which could not be created
+     *
+     * @param setSpec the set's setSpec
+     * @param error the reason the set was rejected
+     * @param conflict true if the set was rejected because it already exists
+     * @return the result
+     */
+    public static SetResult failed(final String setSpec, final String error, final boolean conflict) {
+        return new SetResult(setSpec, null, error, conflict);
+    }
+
+    /**
+     * Gets set spec.
+     *
+     * @return the set spec
+     */
+    public String getSetSpec() {
+        return setSpec;
+    }
+
+    /**
+     * Gets the path of the created set's container.
+     *
+     * @return the path or null if the set was not created
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the reason the set was not created.
+     *
+     * @return the error or null if the set was created
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Check whether the set has been created.
+     *
+     * @return true if the set has been created
+     */
+    public boolean isCreated() {
+        return error == null;
+    }
+
+    /**
+     * Check whether the set was rejected because it already exists.
+     *
+     * @return true if the set already exists, false if it was created or is invalid
+     */
+    public boolean isConflict() {
+        return conflict;
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static org.fcrepo.oai.service.OAIProviderService.urlEncode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.core.UriBuilder;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.openarchives.oai._2.IdentifyType;
+import org.openarchives.oai._2.ListMetadataFormatsType;
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.RecordType;
+import org.openarchives.oai._2.VerbType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Periodically renders the complete ListRecords and ListIdentifiers responses of every format and set into gzip'd
+ * page files, along with an OAI-PMH Static Repository file. Full harvests are answered from the page files for as
+ * long as no container has been modified since the snapshot was started.
+ *
+ * Snapshots are rendered using an internal session, so only enable this if harvesters may read all OAI exposed
+ * objects.
+ *
+ * @author agent
+ */
+public class SnapshotService {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotService.class);
+
+    private static final String OAI_NAMESPACE = "http://www.openarchives.org/OAI/2.0/";
+
+    private static final String STATIC_REPOSITORY_NAMESPACE =
+            "http://www.openarchives.org/OAI/2.0/static-repository";
+
+    private static final String STATIC_REPOSITORY = "static-repository.xml";
+
+    private static final String ALL_SETS = "_all";
+
+    private static final String FIRST_PAGE = "_first";
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile Snapshot current;
+
+    /* the snapshot replaced last, kept until the next one is rendered */
+    private Snapshot retired;
+
+    private String directory;
+
+    private String baseUrl;
+
+    private long initialDelay = 60000;
+
+    private long interval = 24 * 60 * 60 * 1000;
+
+    private long checkInterval = 10000;
+
+    private boolean includeSets = true;
+
+    @Autowired
+    private OAIProviderService providerService;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired(required = false)
+    private InvalidationBus invalidationBus;
+
+    /**
+     * A rendered snapshot and the time its rendering started
+     */
+    private static class Snapshot {
+
+        private final File dir;
+
+        private final long started;
+
+        private volatile long checkedAt;
+
+        private volatile boolean unmodified;
+
+        /* set once an invalidation reported a changed object */
+        private volatile boolean stale;
+
+        Snapshot(final File dir, final long started) {
+            this.dir = dir;
+            this.started = started;
+        }
+    }
+
+    /**
+     * Sets the directory the snapshots are written to.
+     *
+     * @param directory the directory
+     */
+    public void setDirectory(final String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Sets the base url of the repository used in the rendered responses.
+     *
+     * @param baseUrl the base url, e.g. http://localhost:8080/fcrepo/rest
+     */
+    public void setBaseUrl(final String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * Sets the time in milliseconds after startup the first snapshot is rendered.
+     *
+     * @param initialDelay the initial delay in milliseconds
+     */
+    public void setInitialDelay(final long initialDelay) {
+        this.initialDelay = initialDelay;
+    }
+
+    /**
+     * Sets the time in milliseconds between snapshots.
+     *
+     * @param interval the interval in milliseconds
+     */
+    public void setInterval(final long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Sets the time in milliseconds the check for modifications since the snapshot is cached.
+     *
+     * @param checkInterval the check interval in milliseconds
+     */
+    public void setCheckInterval(final long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+    /**
+     * Sets whether the pages of every set are rendered in addition to the pages of the whole repository.
+     *
+     * @param includeSets true to render the pages of every set
+     */
+    public void setIncludeSets(final boolean includeSets) {
+        this.includeSets = includeSets;
+    }
+
+    /**
+     * Schedule the snapshots
+     */
+    @PostConstruct
+    public void init() {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "oai-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::render, initialDelay, interval, TimeUnit.MILLISECONDS);
+        if (invalidationBus != null) {
+            invalidationBus.subscribe(invalidation -> {
+                final Snapshot snapshot = current;
+                if (snapshot != null && invalidation.getScope() == Invalidation.Scope.OBJECT) {
+                    snapshot.stale = true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Stop the snapshots
+     */
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (retired != null) {
+            FileUtils.deleteQuietly(retired.dir);
+        }
+    }
+
+    /**
+     * Find the rendered page of a list request. Only requests without from and until arguments are answered
+     * from a snapshot, and only as long as no container has been modified since the snapshot was started.
+     *
+     * @param session the session of the request
+     * @param verb the verb
+     * @param metadataPrefix the metadata prefix
+     * @param set the set or null
+     * @param cursor the cursor the page starts after, or null for the first page
+     * @return the gzip'd page or null if the request can not be answered from a snapshot
+     * @throws RepositoryException the repository exception
+     */
+    public File findPage(final Session session, final String verb, final String metadataPrefix, final String set,
+            final String cursor) throws RepositoryException {
+        final Snapshot snapshot = current;
+        if (snapshot == null || metadataPrefix == null || (!VerbType.LIST_RECORDS.value().equals(verb)
+                && !VerbType.LIST_IDENTIFIERS.value().equals(verb))) {
+            return null;
+        }
+        final File page = pageFile(snapshot.dir, verb, metadataPrefix, set, cursor);
+        if (!page.isFile() || !isUnmodified(session, snapshot)) {
+            return null;
+        }
+        return page;
+    }
+
+    /**
+     * Get the Static Repository file of the current snapshot
+     *
+     * @return the file or null if no snapshot has been rendered
+     */
+    public File getStaticRepository() {
+        final Snapshot snapshot = current;
+        return snapshot == null ? null : new File(snapshot.dir, STATIC_REPOSITORY);
+    }
+
+    private boolean isUnmodified(final Session session, final Snapshot snapshot) throws RepositoryException {
+        if (snapshot.stale) {
+            return false;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - snapshot.checkedAt > checkInterval) {
+            snapshot.unmodified = !providerService.isModifiedSince(session, snapshot.started);
+            snapshot.checkedAt = now;
+        }
+        return snapshot.unmodified;
+    }
+
+    /**
+     * Render a snapshot and replace the current one with it
+     */
+    void render() {
+        final long started = System.currentTimeMillis();
+        final File target = new File(directory, "snapshot-" + started);
+        final File tmp = new File(directory, ".snapshot-" + started);
+        final Session session = sessionFactory.getInternalSession();
+        try {
+            renderSnapshot(session, UriBuilder.fromUri(baseUrl), tmp, started);
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            final Snapshot previous = current;
+            current = new Snapshot(target, started);
+            /* requests may still stream pages of the replaced snapshot, so it is only deleted one interval later */
+            if (retired != null) {
+                FileUtils.deleteQuietly(retired.dir);
+            }
+            retired = previous;
+            log.info("Rendered OAI snapshot {} in {} ms", target, System.currentTimeMillis() - started);
+        } catch (final Exception e) {
+            log.error("Unable to render OAI snapshot {}", target, e);
+            FileUtils.deleteQuietly(tmp);
+        } finally {
+            session.logout();
+        }
+    }
+
+    private void renderSnapshot(final Session session, final UriBuilder baseUri, final File dir, final long started)
+            throws IOException, RepositoryException, JAXBException, XMLStreamException {
+        Files.createDirectories(dir.toPath());
+        final Marshaller marshaller = OaiJaxbContext.get().createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+
+        try (final OutputStream out = new FileOutputStream(new File(dir, STATIC_REPOSITORY))) {
+            final XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("", "Repository", STATIC_REPOSITORY_NAMESPACE);
+            xml.writeDefaultNamespace(STATIC_REPOSITORY_NAMESPACE);
+            xml.writeNamespace("oai", OAI_NAMESPACE);
+
+            marshaller.marshal(new JAXBElement<>(new QName(STATIC_REPOSITORY_NAMESPACE, "Identify"),
+                    IdentifyType.class, providerService.createIdentify(session, baseUri)), xml);
+            final ListMetadataFormatsType formats = new ListMetadataFormatsType();
+            formats.getMetadataFormat().addAll(providerService.listAvailableMetadataFormats());
+            marshaller.marshal(new JAXBElement<>(new QName(STATIC_REPOSITORY_NAMESPACE, "ListMetadataFormats"),
+                    ListMetadataFormatsType.class, formats), xml);
+
+            for (final MetadataFormat mdf : providerService.getMetadataFormats().values()) {
+                xml.writeStartElement(STATIC_REPOSITORY_NAMESPACE, "ListRecords");
+                xml.writeAttribute("metadataPrefix", mdf.getPrefix());
+                renderPages(session, baseUri, started, dir, VerbType.LIST_RECORDS, mdf, null, xml, marshaller);
+                xml.writeEndElement();
+                renderPages(session, baseUri, started, dir, VerbType.LIST_IDENTIFIERS, mdf, null, null, marshaller);
+                if (includeSets) {
+                    for (final String set : providerService.listSetSpecs(session)) {
+                        renderPages(session, baseUri, started, dir, VerbType.LIST_RECORDS, mdf, set, null, marshaller);
+                        renderPages(session, baseUri, started, dir, VerbType.LIST_IDENTIFIERS, mdf, set, null,
+                                marshaller);
+                    }
+                }
+            }
+
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        }
+    }
+
+    /**
+     * Render the pages of a list request, following the resumption tokens, and optionally add the records to the
+     * Static Repository
+     */
+    private void renderPages(final Session session, final UriBuilder baseUri, final long started, final File dir,
+            final VerbType verb, final MetadataFormat mdf, final String set, final XMLStreamWriter staticRepository,
+            final Marshaller marshaller) throws IOException, RepositoryException, JAXBException {
+        String cursor = null;
+        while (true) {
+            final JAXBElement<OAIPMHtype> page = verb == VerbType.LIST_RECORDS
+                    ? providerService.listRecordsPage(session, baseUri, mdf, null, null, set, null, cursor, started,
+                    false)
+                    : providerService.listIdentifiersPage(session, baseUri, mdf.getPrefix(), null, null, set, null,
+                    cursor, started, false);
+            final File file = pageFile(dir, verb.value(), mdf.getPrefix(), set, cursor);
+            Files.createDirectories(file.getParentFile().toPath());
+            try (final OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+                marshaller.setProperty(Marshaller.JAXB_FRAGMENT, false);
+                marshaller.marshal(page, out);
+            } finally {
+                marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            }
+            final OAIPMHtype oai = page.getValue();
+            if (staticRepository != null && oai.getListRecords() != null) {
+                for (final RecordType record : oai.getListRecords().getRecord()) {
+                    marshaller.marshal(new JAXBElement<>(new QName(OAI_NAMESPACE, "record"), RecordType.class,
+                            record), staticRepository);
+                }
+            }
+            if (oai.getRequest() == null || oai.getRequest().getResumptionToken() == null) {
+                return;
+            }
+            cursor = providerService.decodeResumptionToken(oai.getRequest().getResumptionToken()).getCursor();
+        }
+    }
+
+    /**
+     * The file of a page, named by the digest of its cursor as the paths of the cursors may be arbitrarily long
+     */
+    private static File pageFile(final File dir, final String verb, final String metadataPrefix, final String set,
+            final String cursor) {
+        try {
+            return new File(dir, verb + File.separator + urlEncode(metadataPrefix) + File.separator
+                    + (set == null || set.isEmpty() ? ALL_SETS : urlEncode(set)) + File.separator
+                    + (cursor == null ? FIRST_PAGE : DigestUtils.sha1Hex(cursor)) + ".xml.gz");
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static org.fcrepo.oai.service.OAIProviderService.binaryBytesMeter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXResult;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.fcrepo.oai.trace.HarvestStage;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Derives a record by streaming the stored record of the format's source format through the format's compiled
+ * stylesheet
+ *
+ * @author agent
+ */
+public class XsltGenerator implements MetadataGenerator {
+
+    @Override
+    public Set<String> getProperties(final MetadataFormat format) {
+        return Collections.singleton(format.getSource().getPropertyName());
+    }
+
+    @Override
+    public boolean isAvailable(final MetadataFormat format, final RecordContext record) {
+        return !record.getValues(format.getSource().getPropertyName()).isEmpty();
+    }
+
+    @Override
+    public void generate(final MetadataFormat format, final RecordContext record, final XMLStreamWriter writer)
+            throws XMLStreamException, IOException, RepositoryException {
+        final CountingInputStream counter = new CountingInputStream(record.openRecord(format.getSource()));
+        try (final HarvestStage stage = record.getTrace().stage(HarvestStage.TRANSFORM);
+                final InputStream src = counter) {
+            format.getTemplates().newTransformer().transform(new SAXSource(newRecordReader(), new InputSource(src)),
+                    new StAXResult(writer));
+            stage.bytes(counter.getByteCount());
+        } catch (final TransformerException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Unable to transform the " + format.getSourceFormat() + " record of "
+                    + record.getContainer().getPath() + " to " + format.getPrefix(), e);
+        } finally {
+            binaryBytesMeter.mark(counter.getByteCount());
+        }
+    }
+
+    /**
+     * Create a reader for stored records which does not resolve external entities
+     */
+    private static XMLReader newRecordReader() throws SAXException, ParserConfigurationException {
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+        factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+        factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        return factory.newSAXParser().getXMLReader();
+    }
+}
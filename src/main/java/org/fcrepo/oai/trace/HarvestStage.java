@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.trace;
+
+/**
+ * A timed stage of an OAI harvest request. Closing the stage commits a {@link HarvestStageEvent} to the
+ * flight recorder if a recording is active and the JVM provides the {@code jdk.jfr} API, and adds the stage to the
+ * totals of a recording {@link HarvestTrace}. Otherwise the stage is a no-op.
+ *
+ * @author agent
+ */
+public class HarvestStage implements AutoCloseable {
+
+    public static final String QUERY = "query";
+
+    public static final String CONTAINER_LOOKUP = "container-lookup";
+
+    public static final String SET_RESOLUTION = "set-resolution";
+
+    public static final String DC_GENERATION = "dc-generation";
+
+    public static final String BINARY_READ = "binary-read";
+
+    public static final String TRANSFORM = "transform";
+
+    public static final String MARSHALLING = "marshalling";
+
+    static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+    private final HarvestStageEvent event;
+
+    private final HarvestTrace trace;
+
+    private final String stage;
+
+    private final long started;
+
+    private int rows;
+
+    private long bytes;
+
+    HarvestStage(final HarvestTrace trace, final String stage, final String verb, final String metadataPrefix,
+            final String cursor) {
+        this.trace = trace.isRecording() ? trace : null;
+        this.stage = stage;
+        this.started = this.trace != null ? System.nanoTime() : 0;
+        if (JFR_AVAILABLE) {
+            this.event = new HarvestStageEvent();
+            if (event.isEnabled()) {
+                event.stage = stage;
+                event.verb = verb;
+                event.metadataPrefix = metadataPrefix;
+                event.cursor = cursor;
+                event.begin();
+            }
+        } else {
+            this.event = null;
+        }
+    }
+
+    /**
+     * Set the number of rows handled by this stage
+     *
+     * @param rows the number of rows
+     * @return this stage
+     */
+    public HarvestStage rows(final int rows) {
+        this.rows = rows;
+        return this;
+    }
+
+    /**
+     * Add to the number of bytes handled by this stage
+     *
+     * @param bytes the number of bytes
+     * @return this stage
+     */
+    public HarvestStage bytes(final long bytes) {
+        this.bytes += bytes;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (trace != null) {
+            trace.record(stage, System.nanoTime() - started, rows, bytes);
+        }
+        if (event != null && event.isEnabled()) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.rows = rows;
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, HarvestStage.class.getClassLoader());
+            return true;
+        } catch (final ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
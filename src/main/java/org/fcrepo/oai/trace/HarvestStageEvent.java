@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event emitted for a single stage of an OAI harvest request
+ *
+ * @author agent
+ */
+@Name("org.fcrepo.oai.HarvestStage")
+@Label("OAI Harvest Stage")
+@Category({"Fedora", "OAI Provider"})
+@Description("A stage of the OAI record pipeline, e.g. the JCR query, set resolution or binary reads")
+@StackTrace(false)
+class HarvestStageEvent extends jdk.jfr.Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Verb")
+    String verb;
+
+    @Label("Metadata Prefix")
+    String metadataPrefix;
+
+    @Label("Page Cursor")
+    String cursor;
+
+    @Label("Rows")
+    int rows;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
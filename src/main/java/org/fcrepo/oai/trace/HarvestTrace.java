@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openarchives.oai._2.VerbType;
+
+/**
+ * Carries the parameters of an OAI request which are recorded with each of its {@link HarvestStage}s. A recording
+ * trace additionally sums up the time spent in each stage and keeps the queries run for the request.
+ *
+ * @author agent
+ */
+public class HarvestTrace {
+
+    private final String verb;
+
+    private final String metadataPrefix;
+
+    private final String cursor;
+
+    private final Map<String, StageTotals> totals;
+
+    private final List<String> queries;
+
+    /**
+     * Create a new trace for an OAI request
+     *
+     * @param verb the OAI verb
+     * @param metadataPrefix the OAI metadata prefix
+     * @param cursor the cursor the requested page starts after, or null for the first page
+     */
+    public HarvestTrace(final VerbType verb, final String metadataPrefix, final String cursor) {
+        this(verb, metadataPrefix, cursor, false);
+    }
+
+    /**
+     * Create a new trace for an OAI request
+     *
+     * @param verb the OAI verb
+     * @param metadataPrefix the OAI metadata prefix
+     * @param cursor the cursor the requested page starts after, or null for the first page
+     * @param recording true to sum up the stages and keep the queries of the request
+     */
+    public HarvestTrace(final VerbType verb, final String metadataPrefix, final String cursor,
+            final boolean recording) {
+        this.verb = verb != null ? verb.value() : null;
+        this.metadataPrefix = metadataPrefix;
+        this.cursor = cursor;
+        this.totals = recording ? new LinkedHashMap<>() : null;
+        this.queries = recording ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Start a new stage of this request
+     *
+     * @param stage the name of the stage
+     * @return the started stage which has to be closed by the caller
+     */
+    public HarvestStage stage(final String stage) {
+        return new HarvestStage(this, stage, verb, metadataPrefix, cursor);
+    }
+
+    /**
+     * Check whether this trace sums up its stages
+     *
+     * @return true if the trace is recording
+     */
+    public boolean isRecording() {
+        return totals != null;
+    }
+
+    /**
+     * Keep a query run for the request if the trace is recording
+     *
+     * @param query the query
+     */
+    public synchronized void query(final String query) {
+        if (queries != null) {
+            queries.add(query);
+        }
+    }
+
+    /**
+     * Get the queries run for the request
+     *
+     * @return the queries in the order they were run
+     */
+    public synchronized List<String> getQueries() {
+        return queries == null ? Collections.emptyList() : new ArrayList<>(queries);
+    }
+
+    /**
+     * Get the totals of each stage
+     *
+     * @return the totals by stage name in the order the stages were first entered
+     */
+    public synchronized Map<String, StageTotals> getStageTotals() {
+        return totals == null ? Collections.emptyMap() : new LinkedHashMap<>(totals);
+    }
+
+    synchronized void record(final String stage, final long nanos, final int rows, final long bytes) {
+        if (totals != null) {
+            totals.computeIfAbsent(stage, s -> new StageTotals()).add(nanos, rows, bytes);
+        }
+    }
+
+    /**
+     * The summed up time, rows and bytes of all runs of a stage
+     */
+    public static class StageTotals {
+
+        private int count;
+
+        private long nanos;
+
+        private long rows;
+
+        private long bytes;
+
+        private void add(final long nanos, final int rows, final long bytes) {
+            this.count++;
+            this.nanos += nanos;
+            this.rows += rows;
+            this.bytes += bytes;
+        }
+
+        /**
+         * Get the number of runs of the stage
+         *
+         * @return the number of runs
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Get the time spent in the stage
+         *
+         * @return the time in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Get the number of rows handled by the stage
+         *
+         * @return the number of rows
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * Get the number of bytes handled by the stage
+         *
+         * @return the number of bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class AdmissionControllerTest {
+
+    private AdmissionController controller;
+
+    @Before
+    public void setUp() {
+        controller = new AdmissionController();
+        controller.setMaxConcurrent(2);
+        controller.setMaxPerClient(1);
+        controller.setMaxQueued(8);
+        controller.setQueueTimeout(50);
+        /* keep the test independent of the test JVM's heap and GC */
+        controller.setMaxHeapUsage(2);
+        controller.setMaxGcTimeRatio(2);
+        controller.setTrustedProxies(new HashSet<>(Arrays.asList("10.0.0.1", "10.0.0.2")));
+        controller.init();
+    }
+
+    @Test
+    public void testRejectsClientAboveItsLimit() throws Exception {
+        final AdmissionController.Permit first = controller.admit("192.168.0.1");
+        assertNotNull(first);
+        assertNull(controller.admit("192.168.0.1"));
+        assertNotNull(controller.admit("192.168.0.2"));
+        first.close();
+        assertNotNull(controller.admit("192.168.0.1"));
+    }
+
+    @Test
+    public void testRejectsWhenSaturated() throws Exception {
+        assertFalse(controller.isSaturated());
+        assertNotNull(controller.admit("192.168.0.1"));
+        assertNotNull(controller.admit("192.168.0.2"));
+        assertTrue(controller.isSaturated());
+        assertNull(controller.admit("192.168.0.3"));
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        controller.setMaxQueued(0);
+        assertNull(controller.admit("192.168.0.1"));
+    }
+
+    @Test
+    public void testRejectsUnderMemoryPressure() throws Exception {
+        controller.setMaxHeapUsage(0);
+        assertTrue(controller.isUnderPressure());
+        assertNull(controller.admit("192.168.0.1"));
+    }
+
+    @Test
+    public void testIgnoresForwardedForFromUntrustedAddress() {
+        assertEquals("192.168.0.1", controller.clientId(request("192.168.0.1", "172.16.0.1")));
+    }
+
+    @Test
+    public void testUsesForwardedForFromTrustedProxy() {
+        assertEquals("172.16.0.1", controller.clientId(request("10.0.0.1", "172.16.0.1")));
+    }
+
+    @Test
+    public void testSkipsTrustedProxiesInForwardedFor() {
+        assertEquals("172.16.0.2",
+                controller.clientId(request("10.0.0.1", "spoofed, 172.16.0.2, 10.0.0.2")));
+    }
+
+    @Test
+    public void testUsesRemoteAddressWithoutForwardedFor() {
+        assertEquals("10.0.0.1", controller.clientId(request("10.0.0.1", null)));
+    }
+
+    private static HttpServletRequest request(final String remote, final String forwarded) {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRemoteAddr()).thenReturn(remote);
+        when(request.getHeader("X-Forwarded-For")).thenReturn(forwarded);
+        return request;
+    }
+}
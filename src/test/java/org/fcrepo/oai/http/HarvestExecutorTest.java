@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ConnectionCallback;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * @author agent
+ */
+public class HarvestExecutorTest {
+
+    private HarvestExecutor executor;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        executor = new HarvestExecutor();
+        executor.setThreads(1);
+        executor.setQueueSize(1);
+        executor.setTimeout(1);
+        executor.setRetryAfter(7);
+        executor.init();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.destroy();
+    }
+
+    @Test
+    public void testResumesWithResult() throws Exception {
+        final AsyncResponse response = mock(AsyncResponse.class);
+        executor.execute(response, () -> "page");
+        verify(response, timeout(5000)).resume("page");
+        verify(response).setTimeout(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testTimeoutInterruptsAndAnswers503OnceReturned() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch returned = new CountDownLatch(1);
+        final AsyncResponse response = mock(AsyncResponse.class);
+        executor.execute(response, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                interrupted.countDown();
+                /* still holding the session until this returns */
+                returned.await(5, TimeUnit.SECONDS);
+            }
+            return "late";
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final AsyncResponse timedOut = mock(AsyncResponse.class);
+        timeoutHandler(response).handleTimeout(timedOut);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        /* the timeout is extended instead of resuming while the request runs */
+        verify(timedOut).setTimeout(1, TimeUnit.SECONDS);
+        verify(timedOut, never()).resume(any(Object.class));
+        verify(response, never()).resume(any(Object.class));
+
+        returned.countDown();
+        assertServiceUnavailable(response);
+    }
+
+    @Test
+    public void testTimeoutOfQueuedRequestAnswers503() throws Exception {
+        executor.destroy();
+        executor.setQueueSize(2);
+        executor.init();
+        final AsyncResponse running = mock(AsyncResponse.class);
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.execute(running, () -> {
+            started.countDown();
+            return release.await(10, TimeUnit.SECONDS);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final AsyncResponse queued = mock(AsyncResponse.class);
+        final CountDownLatch ran = new CountDownLatch(1);
+        executor.execute(queued, () -> {
+            ran.countDown();
+            return "queued";
+        });
+        final AsyncResponse timedOut = mock(AsyncResponse.class);
+        timeoutHandler(queued).handleTimeout(timedOut);
+        verify(timedOut, never()).setTimeout(anyLong(), any(TimeUnit.class));
+        assertServiceUnavailable(queued);
+
+        release.countDown();
+        verify(running, timeout(5000)).resume(true);
+        /* the single thread runs requests in order, the cancelled request was skipped before this one */
+        final AsyncResponse next = mock(AsyncResponse.class);
+        executor.execute(next, () -> "next");
+        verify(next, timeout(5000)).resume("next");
+        assertEquals(1, ran.getCount());
+    }
+
+    @Test
+    public void testDisconnectCancelsRequest() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AsyncResponse response = mock(AsyncResponse.class);
+        executor.execute(response, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "disconnected";
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        connectionCallback(response).onDisconnect(response);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertServiceUnavailable(response);
+    }
+
+    @Test
+    public void testFullQueueAnswers503() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.execute(mock(AsyncResponse.class), () -> {
+            started.countDown();
+            return release.await(10, TimeUnit.SECONDS);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.execute(mock(AsyncResponse.class), () -> "queued");
+
+        final AsyncResponse rejected = mock(AsyncResponse.class);
+        executor.execute(rejected, () -> "rejected");
+        assertServiceUnavailable(rejected);
+    }
+
+    @Test
+    public void testResumesWithRepositoryException() throws Exception {
+        final RepositoryException failure = new RepositoryException("failed");
+        final AsyncResponse response = mock(AsyncResponse.class);
+        executor.execute(response, () -> {
+            throw failure;
+        });
+        verify(response, timeout(5000)).resume(failure);
+    }
+
+    private static TimeoutHandler timeoutHandler(final AsyncResponse response) {
+        final ArgumentCaptor<TimeoutHandler> handler = ArgumentCaptor.forClass(TimeoutHandler.class);
+        verify(response).setTimeoutHandler(handler.capture());
+        return handler.getValue();
+    }
+
+    private static ConnectionCallback connectionCallback(final AsyncResponse response) {
+        final ArgumentCaptor<Object> callback = ArgumentCaptor.forClass(Object.class);
+        verify(response).register(callback.capture());
+        return (ConnectionCallback) callback.getValue();
+    }
+
+    private static void assertServiceUnavailable(final AsyncResponse response) {
+        final ArgumentCaptor<Object> result = ArgumentCaptor.forClass(Object.class);
+        verify(response, timeout(5000)).resume(result.capture());
+        assertTrue(result.getValue() instanceof Response);
+        final Response rejected = (Response) result.getValue();
+        assertEquals(503, rejected.getStatus());
+        assertEquals("7", String.valueOf(rejected.getHeaders().getFirst("Retry-After")));
+    }
+}
@@ -83,6 +83,11 @@ public abstract class AbstractOAIProviderIT {
     protected static final String serverAddress = "http://" + HOSTNAME + ":" +
             SERVER_PORT + "/";
 
+    /* anonymous requests are answered on pooled sessions, which only see objects carrying the public visibility */
+    protected static final String PROPERTY_VISIBILITY = "http://fedora.info/definitions/v4/config#hasOAIVisibility";
+
+    protected static final String VISIBILITY_PUBLIC = "public";
+
     protected final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
 
     protected static HttpClient client;
@@ -138,19 +143,29 @@ public abstract class AbstractOAIProviderIT {
     }
 
     protected void createFedoraObject(final String pid, final String set) throws IOException {
+        createFedoraObject(pid, set, VISIBILITY_PUBLIC);
+    }
+
+    protected void createFedoraObject(final String pid, final String set, final String visibility)
+            throws IOException {
         final HttpPost post = postObjMethod("/");
         if (pid.length() > 0) {
             post.addHeader("Slug", pid);
         }
+        StringBuilder sparql = new StringBuilder("INSERT {");
         if (set != null && !set.isEmpty()) {
-            StringBuilder sparql = new StringBuilder("INSERT {")
-                    .append("<> ")
+            sparql.append("<> ")
                     .append("<http://fedora.info/definitions/v4/config#isPartOfOAISet> ")
-                    .append("\"").append(set).append("\" .")
-                    .append("} WHERE {}");
-            post.setEntity(new StringEntity(sparql.toString()));
-            post.addHeader("Content-Type", "application/sparql-update");
+                    .append("\"").append(set).append("\" .");
         }
+        if (visibility != null) {
+            sparql.append("<> ")
+                    .append("<").append(PROPERTY_VISIBILITY).append("> ")
+                    .append("\"").append(visibility).append("\" .");
+        }
+        sparql.append("} WHERE {}");
+        post.setEntity(new StringEntity(sparql.toString()));
+        post.addHeader("Content-Type", "application/sparql-update");
 
         final HttpResponse response = client.execute(post);
         assertEquals(CREATED.getStatusCode(), response.getStatusLine().getStatusCode());
@@ -168,6 +183,9 @@ public abstract class AbstractOAIProviderIT {
                 .append("<> ")
                 .append("<").append(property).append("> ")
                 .append("\"").append(binaryId).append("\" .")
+                .append("<> ")
+                .append("<").append(PROPERTY_VISIBILITY).append("> ")
+                .append("\"").append(VISIBILITY_PUBLIC).append("\" .")
                 .append("} WHERE {}");
         post.setEntity(new StringEntity(sparql.toString()));
         post.addHeader("Content-Type", "application/sparql-update");
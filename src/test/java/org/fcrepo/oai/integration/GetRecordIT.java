@@ -16,18 +16,27 @@
 package org.fcrepo.oai.integration;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import javax.xml.bind.JAXBElement;
 
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 import org.junit.Test;
 import org.openarchives.oai._2.OAIPMHerrorcodeType;
 import org.openarchives.oai._2.OAIPMHtype;
 import org.openarchives.oai._2.VerbType;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 public class GetRecordIT extends AbstractOAIProviderIT {
 
@@ -127,4 +136,65 @@ public class GetRecordIT extends AbstractOAIProviderIT {
         assertNotNull(oai.getGetRecord().getRecord().getMetadata().getAny());
         assertTrue(oai.getGetRecord().getRecord().getHeader().getIdentifier().endsWith(objId));
     }
+
+    @Test
+    public void testGetDerivedRecord() throws Exception {
+        String objId = "oai-test-" + RandomStringUtils.randomAlphabetic(8);
+        String binaryPath = "oai-data/marc21-binary-" + RandomStringUtils.randomAlphabetic(8);
+
+        createBinaryObject(binaryPath,
+                this.getClass().getClassLoader().getResourceAsStream("test-data/marc21-title.xml"));
+        createFedoraObjectWithOaiLink(objId, binaryPath, "http://fedora.info/definitions/v4/config#hasOaiMarc21Record");
+
+        HttpResponse resp = getOAIPMHResponse(VerbType.GET_RECORD.value(), objId, "marc21_title", null, null, null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        OAIPMHtype oai =
+                ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(0, oai.getError().size());
+        assertTrue(oai.getGetRecord().getRecord().getHeader().getIdentifier().endsWith(objId));
+        Element title = (Element) oai.getGetRecord().getRecord().getMetadata().getAny();
+        assertEquals("http://example.org/title", title.getNamespaceURI());
+        assertEquals("title", title.getLocalName());
+        assertEquals("A map of Charleston and vicinity", title.getTextContent().trim());
+    }
+
+    @Test
+    public void testGetOAIDCRecordMapsProperties() throws Exception {
+        String objId = "oai-test-" + RandomStringUtils.randomAlphabetic(8);
+        HttpPost post = postObjMethod("/");
+        post.addHeader("Slug", objId);
+        post.addHeader("Content-Type", "application/sparql-update");
+        post.setEntity(new StringEntity("INSERT {"
+                + "<> <http://purl.org/dc/elements/1.1/title> \"A title\" . "
+                + "<> <http://purl.org/dc/terms/abstract> \"An abstract\" . "
+                + "<> <http://example.org/unmapped> \"unmapped\" . "
+                + "<> <" + PROPERTY_VISIBILITY + "> \"" + VISIBILITY_PUBLIC + "\" . "
+                + "} WHERE {}"));
+        assertEquals(201, client.execute(post).getStatusLine().getStatusCode());
+        post.releaseConnection();
+
+        HttpResponse resp = getOAIPMHResponse(VerbType.GET_RECORD.value(), objId, "oai_dc", null, null, null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        OAIPMHtype oai =
+                ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(0, oai.getError().size());
+        Element dc = (Element) oai.getGetRecord().getRecord().getMetadata().getAny();
+        assertEquals(Arrays.asList("A title"), elementValues(dc, "title"));
+        assertEquals(Arrays.asList("An abstract"), elementValues(dc, "description"));
+        boolean unmappedFound = false;
+        for (String relation : elementValues(dc, "relation")) {
+            assertFalse(relation.startsWith("http://purl.org/dc/elements/1.1/title "));
+            unmappedFound |= relation.startsWith("http://example.org/unmapped ");
+        }
+        assertTrue(unmappedFound);
+    }
+
+    private static List<String> elementValues(Element dc, String name) {
+        NodeList nodes = dc.getElementsByTagNameNS("http://purl.org/dc/elements/1.1/", name);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            values.add(nodes.item(i).getTextContent());
+        }
+        return values;
+    }
 }
@@ -19,11 +19,20 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import javax.xml.bind.JAXBElement;
 
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import org.junit.Test;
+import org.openarchives.oai._2.HeaderType;
 import org.openarchives.oai._2.OAIPMHerrorcodeType;
 import org.openarchives.oai._2.OAIPMHtype;
 import org.openarchives.oai._2.VerbType;
@@ -107,6 +116,26 @@ public class ListIdentifiersIT extends AbstractOAIProviderIT {
         assertTrue(oaipmh.getListIdentifiers().getHeader().size() > 0);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListIdentifyForgedResumptionToken() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            createFedoraObject("oai-test-" + RandomStringUtils.randomAlphabetic(16));
+        }
+
+        HttpResponse resp = getOAIPMHResponse(VerbType.LIST_IDENTIFIERS.value(), null, "oai_dc", null, null, null);
+        OAIPMHtype oaipmh =
+                ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        final char[] token = oaipmh.getRequest().getResumptionToken().toCharArray();
+        token[token.length / 2] = token[token.length / 2] == 'A' ? 'B' : 'A';
+
+        resp = getOAIPMHResponse(new String(token));
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        oaipmh = ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(1, oaipmh.getError().size());
+        assertEquals(OAIPMHerrorcodeType.BAD_RESUMPTION_TOKEN, oaipmh.getError().get(0).getCode());
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void testListIdentifyRecordsFrom() throws Exception {
@@ -160,4 +189,84 @@ public class ListIdentifiersIT extends AbstractOAIProviderIT {
         assertEquals(1, oaipmh.getListIdentifiers().getHeader().get(0).getSetSpec().size());
         assertEquals(setName, oaipmh.getListIdentifiers().getHeader().get(0).getSetSpec().get(0));
     }
-}
\ No newline at end of file
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListIdentifyRecordsFromParentSet() throws Exception {
+        final String parentSpec = "oai-test-set-" + RandomStringUtils.randomAlphabetic(16);
+        final String childSpec = parentSpec + ":" + RandomStringUtils.randomAlphabetic(8);
+        createSet(parentSpec, null);
+        createSet("child of " + parentSpec, childSpec);
+        createFedoraObject("oai-test-" + RandomStringUtils.randomAlphabetic(16), childSpec);
+
+        HttpResponse resp =
+                getOAIPMHResponse(VerbType.LIST_IDENTIFIERS.value(), null, "oai_dc", null, null, parentSpec);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        OAIPMHtype oaipmh =
+                ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(0, oaipmh.getError().size());
+        assertEquals(1, oaipmh.getListIdentifiers().getHeader().size());
+        assertEquals(childSpec, oaipmh.getListIdentifiers().getHeader().get(0).getSetSpec().get(0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListIdentifyRecordsFromBulkMembership() throws Exception {
+        final String setName = "oai-test-set-" + RandomStringUtils.randomAlphabetic(16);
+        final String first = "oai-test-" + RandomStringUtils.randomAlphabetic(16);
+        final String second = "oai-test-" + RandomStringUtils.randomAlphabetic(16);
+        createSet(setName, null);
+        createFedoraObject(first, null);
+        createFedoraObject(second, null);
+
+        HttpPost post = new HttpPost(serverAddress + "/oai/sets/" + setName + "/members");
+        post.setEntity(new StringEntity(first + "\n" + second + "\n", ContentType.TEXT_PLAIN));
+        HttpResponse resp = this.client.execute(post);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertTrue(EntityUtils.toString(resp.getEntity()).contains("processed=2 changed=2 missing=0"));
+
+        post = new HttpPost(serverAddress + "/oai/sets/" + setName + "/members?action=remove");
+        post.setEntity(new StringEntity(second, ContentType.TEXT_PLAIN));
+        resp = this.client.execute(post);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        EntityUtils.consume(resp.getEntity());
+
+        resp = getOAIPMHResponse(VerbType.LIST_IDENTIFIERS.value(), null, "oai_dc", null, null, setName);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        final OAIPMHtype oaipmh =
+                ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(0, oaipmh.getError().size());
+        assertEquals(1, oaipmh.getListIdentifiers().getHeader().size());
+        assertTrue(oaipmh.getListIdentifiers().getHeader().get(0).getIdentifier().endsWith(first));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListIdentifyRecordsPartitioned() throws Exception {
+        final String setName = "oai-test-set-" + RandomStringUtils.randomAlphabetic(16);
+        createSet(setName, null);
+        for (int i = 0; i < 4; i++) {
+            createFedoraObject("oai-test-" + RandomStringUtils.randomAlphabetic(16), setName);
+        }
+
+        final Set<String> identifiers = new HashSet<>();
+        int harvested = 0;
+        for (int k = 0; k < 2; k++) {
+            final HttpResponse resp = this.client.execute(new HttpGet(serverAddress
+                    + "/oai?verb=ListIdentifiers&metadataPrefix=oai_dc&set=" + setName + "&partition=" + k + "/2"));
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            final OAIPMHtype oaipmh =
+                    ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+            if (oaipmh.getError().isEmpty()) {
+                for (final HeaderType header : oaipmh.getListIdentifiers().getHeader()) {
+                    identifiers.add(header.getIdentifier());
+                    harvested++;
+                }
+            } else {
+                assertEquals(OAIPMHerrorcodeType.NO_RECORDS_MATCH, oaipmh.getError().get(0).getCode());
+            }
+        }
+        assertEquals(4, identifiers.size());
+        assertEquals(4, harvested);
+    }
+}
@@ -17,16 +17,19 @@ package org.fcrepo.oai.integration;
 
 import static junit.framework.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 import javax.xml.bind.JAXBElement;
 
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.util.EntityUtils;
 import org.junit.Test;
 import org.openarchives.oai._2.OAIPMHerrorcodeType;
 import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.RecordType;
 import org.openarchives.oai._2.VerbType;
 
 public class ListRecordsIT extends AbstractOAIProviderIT {
@@ -57,7 +60,60 @@ public class ListRecordsIT extends AbstractOAIProviderIT {
                 ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
         assertNotNull(oaipmh.getRequest());
         assertEquals(VerbType.LIST_RECORDS.value(), oaipmh.getRequest().getVerb().value());
+        /* answered by the harvest executor, but reported with the URI the client requested */
+        assertTrue(oaipmh.getRequest().getValue().contains("/oai?"));
         assertEquals(0, oaipmh.getError().size());
         assertTrue(oaipmh.getListRecords().getRecord().size() > 0);
     }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListRecordsOnlyObjectsWithRecord() throws Exception {
+        String linkedId = "oai-test-" + RandomStringUtils.randomAlphabetic(16);
+        String plainId = "oai-test-" + RandomStringUtils.randomAlphabetic(16);
+        String binaryPath = "oai-data/premis-binary-" + RandomStringUtils.randomAlphabetic(8);
+        createBinaryObject(binaryPath, this.getClass().getClassLoader().getResourceAsStream("test-data/premis.xml"));
+        createFedoraObjectWithOaiLink(linkedId, binaryPath,
+                "http://fedora.info/definitions/v4/config#hasOaiPremisRecord");
+        createFedoraObject(plainId);
+
+        boolean linkedFound = false;
+        HttpResponse resp = getOAIPMHResponse(VerbType.LIST_RECORDS.value(), null, "premis", null, null, null);
+        while (true) {
+            assertEquals(200, resp.getStatusLine().getStatusCode());
+            OAIPMHtype oaipmh =
+                    ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+            assertEquals(0, oaipmh.getError().size());
+            for (RecordType record : oaipmh.getListRecords().getRecord()) {
+                assertNotNull(record.getMetadata());
+                assertFalse(record.getHeader().getIdentifier().endsWith(plainId));
+                linkedFound |= record.getHeader().getIdentifier().endsWith(linkedId);
+            }
+            if (oaipmh.getRequest().getResumptionToken() == null) {
+                break;
+            }
+            resp = getOAIPMHResponse(oaipmh.getRequest().getResumptionToken());
+        }
+        assertTrue(linkedFound);
+    }
+
+    @Test
+    public void testExplainRequiresAdministrator() throws Exception {
+        HttpResponse resp = client.execute(new HttpGet(serverAddress
+                + "/oai/explain?verb=ListRecords&metadataPrefix=oai_dc"));
+        EntityUtils.consume(resp.getEntity());
+        assertEquals(403, resp.getStatusLine().getStatusCode());
+
+        /* the role is checked before the token is decoded */
+        resp = client.execute(new HttpGet(serverAddress + "/oai/explain?resumptionToken=invalid"));
+        EntityUtils.consume(resp.getEntity());
+        assertEquals(403, resp.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testMetricsRequireAdministrator() throws Exception {
+        HttpResponse resp = client.execute(new HttpGet(serverAddress + "/oai/metrics"));
+        EntityUtils.consume(resp.getEntity());
+        assertEquals(403, resp.getStatusLine().getStatusCode());
+    }
 }
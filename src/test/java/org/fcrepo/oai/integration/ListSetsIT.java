@@ -23,6 +23,10 @@ import javax.xml.bind.JAXBElement;
 
 import org.apache.commons.lang.RandomStringUtils;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import org.junit.Test;
 import org.openarchives.oai._2.OAIPMHtype;
 import org.openarchives.oai._2.VerbType;
@@ -50,4 +54,46 @@ public class ListSetsIT extends AbstractOAIProviderIT {
         assertNotNull(oai.getListSets().getSet().get(0).getSetName());
         assertNotNull(oai.getListSets().getSet().get(0).getSetSpec());
     }
-}
\ No newline at end of file
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testListSetsResumption() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            createSet("oai-test-set-" + RandomStringUtils.randomAlphabetic(16), null);
+        }
+        HttpResponse resp = getOAIPMHResponse(VerbType.LIST_SETS.value(), null, null, null, null, null);
+        OAIPMHtype oai =
+                ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertEquals(0, oai.getError().size());
+        assertEquals(5, oai.getListSets().getSet().size());
+        assertNotNull(oai.getRequest().getResumptionToken());
+
+        resp = getOAIPMHResponse(oai.getRequest().getResumptionToken());
+        oai = ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertEquals(0, oai.getError().size());
+        assertTrue(oai.getListSets().getSet().size() > 0);
+    }
+
+    @Test
+    public void testCreateSetsBatch() throws Exception {
+        final String spec = "oai-test-set-" + RandomStringUtils.randomAlphabetic(16);
+        final String batch = "<sets xmlns=\"http://www.openarchives.org/OAI/2.0/\">"
+                + "<set><setSpec>" + spec + "</setSpec><setName>parent</setName></set>"
+                + "<set><setSpec>" + spec + ":child</setSpec><setName>child</setName></set>"
+                + "<set><setSpec>" + spec + "</setSpec><setName>duplicate</setName></set>"
+                + "<set><setSpec>" + spec + ":unnamed</setSpec><setName></setName></set>"
+                + "</sets>";
+        final HttpPost post = new HttpPost(serverAddress + "/oai/sets/batch");
+        post.setEntity(new StringEntity(batch, ContentType.TEXT_XML));
+        final HttpResponse resp = this.client.execute(post);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        final String[] lines = EntityUtils.toString(resp.getEntity()).split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("201 " + spec + " "));
+        assertTrue(lines[1].startsWith("201 " + spec + ":child "));
+        assertTrue(lines[2].startsWith("409 " + spec + " "));
+        assertTrue(lines[3].startsWith("400 " + spec + ":unnamed "));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.xml.bind.JAXBElement;
+
+import org.apache.commons.lang.RandomStringUtils;
+import org.apache.http.HttpResponse;
+import org.junit.Test;
+import org.openarchives.oai._2.OAIPMHerrorcodeType;
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.VerbType;
+
+/**
+ * Anonymous requests are answered on pooled sessions, which only see the objects marked public.
+ *
+ * @author agent
+ */
+public class VisibilityIT extends AbstractOAIProviderIT {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAnonymousHarvestListsPublicObjectsOnly() throws Exception {
+        final String setName = "oai-test-set-" + RandomStringUtils.randomAlphabetic(16);
+        final String publicId = "oai-test-" + RandomStringUtils.randomAlphabetic(16);
+        createSet(setName, null);
+        createFedoraObject(publicId, setName);
+        createFedoraObject("oai-test-" + RandomStringUtils.randomAlphabetic(16), setName, "private");
+        createFedoraObject("oai-test-" + RandomStringUtils.randomAlphabetic(16), setName, null);
+
+        HttpResponse resp =
+                getOAIPMHResponse(VerbType.LIST_IDENTIFIERS.value(), null, "oai_dc", null, null, setName);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        OAIPMHtype oaipmh =
+                ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(0, oaipmh.getError().size());
+        assertNotNull(oaipmh.getListIdentifiers());
+        assertEquals(1, oaipmh.getListIdentifiers().getHeader().size());
+        assertTrue(oaipmh.getListIdentifiers().getHeader().get(0).getIdentifier().endsWith("/" + publicId));
+
+        resp = getOAIPMHResponse(VerbType.LIST_RECORDS.value(), null, "oai_dc", null, null, setName);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        oaipmh = ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(0, oaipmh.getError().size());
+        assertNotNull(oaipmh.getListRecords());
+        assertEquals(1, oaipmh.getListRecords().getRecord().size());
+        assertTrue(oaipmh.getListRecords().getRecord().get(0).getHeader().getIdentifier().endsWith("/" + publicId));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAnonymousGetRecordOfHiddenObjectIsRefused() throws Exception {
+        final String publicId = "oai-test-" + RandomStringUtils.randomAlphabetic(16);
+        final String hiddenId = "oai-test-" + RandomStringUtils.randomAlphabetic(16);
+        createFedoraObject(publicId);
+        createFedoraObject(hiddenId, null, "private");
+
+        HttpResponse resp = getOAIPMHResponse(VerbType.GET_RECORD.value(), publicId, "oai_dc", null, null, null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        OAIPMHtype oaipmh =
+                ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(0, oaipmh.getError().size());
+        assertNotNull(oaipmh.getGetRecord());
+
+        resp = getOAIPMHResponse(VerbType.GET_RECORD.value(), hiddenId, "oai_dc", null, null, null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        oaipmh = ((JAXBElement<OAIPMHtype>) this.unmarshaller.unmarshal(resp.getEntity().getContent())).getValue();
+        assertEquals(1, oaipmh.getError().size());
+        assertEquals(OAIPMHerrorcodeType.ID_DOES_NOT_EXIST, oaipmh.getError().get(0).getCode());
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.kernel.api.models.FedoraBinary;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author agent
+ */
+public class BinaryCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BinaryCache cache;
+
+    private File spillDirectory;
+
+    @Before
+    public void setUp() {
+        cache = new BinaryCache();
+        cache.setMaxEntrySize(8);
+        cache.setMaxMemory(16);
+        cache.setMaxDisk(32);
+        spillDirectory = new File(folder.getRoot(), "spill");
+    }
+
+    @Test
+    public void testSmallRecordIsKeptInMemory() throws Exception {
+        cache.init();
+        final FedoraBinary binary = binary("urn:sha1:a", "12345678");
+        assertEquals("12345678", read(binary));
+        assertEquals("12345678", read(binary));
+        verify(binary, times(1)).getContent();
+    }
+
+    @Test
+    public void testMemoryIsBounded() throws Exception {
+        cache.init();
+        final FedoraBinary first = binary("urn:sha1:a", "aaaaaaaa");
+        read(first);
+        read(binary("urn:sha1:b", "bbbbbbbb"));
+        read(binary("urn:sha1:c", "cccccccc"));
+        assertEquals(16, totalSize(cache.getMemoryEntries().values()));
+        /* the least recently used record was evicted and has to be read again */
+        read(first);
+        verify(first, times(2)).getContent();
+    }
+
+    @Test
+    public void testEvictedRecordIsSpilled() throws Exception {
+        cache.setSpillDirectory(spillDirectory.getPath());
+        cache.init();
+        final FedoraBinary first = binary("urn:sha1:a", "aaaaaaaa");
+        read(first);
+        read(binary("urn:sha1:b", "bbbbbbbb"));
+        read(binary("urn:sha1:c", "cccccccc"));
+        assertEquals("aaaaaaaa", read(first));
+        verify(first, times(1)).getContent();
+    }
+
+    @Test
+    public void testLargeRecordIsStreamedWithoutSpillDirectory() throws Exception {
+        cache.init();
+        final FedoraBinary binary = binary("urn:sha1:large", "0123456789abcdef");
+        assertEquals("0123456789abcdef", read(binary));
+        assertEquals("0123456789abcdef", read(binary));
+        verify(binary, times(2)).getContent();
+        assertTrue(cache.getMemoryEntries().isEmpty());
+    }
+
+    @Test
+    public void testLargeRecordIsSpilledWhileRead() throws Exception {
+        cache.setSpillDirectory(spillDirectory.getPath());
+        cache.init();
+        final FedoraBinary binary = binary("urn:sha1:large", "0123456789abcdef");
+        assertEquals("0123456789abcdef", read(binary));
+        assertEquals(1, spilledFiles());
+        assertEquals("0123456789abcdef", read(binary));
+        verify(binary, times(1)).getContent();
+    }
+
+    @Test
+    public void testPartiallyReadRecordIsNotSpilled() throws Exception {
+        cache.setSpillDirectory(spillDirectory.getPath());
+        cache.init();
+        final FedoraBinary binary = binary("urn:sha1:large", "0123456789abcdef");
+        try (final InputStream src = cache.open(binary)) {
+            assertEquals('0', src.read());
+        }
+        assertEquals(0, spilledFiles());
+        assertEquals("0123456789abcdef", read(binary));
+        verify(binary, times(2)).getContent();
+    }
+
+    @Test
+    public void testRecordLargerThanDiskIsNotCached() throws Exception {
+        cache.setSpillDirectory(spillDirectory.getPath());
+        cache.init();
+        final String content = "0123456789abcdef0123456789abcdef0123456789abcdef";
+        final FedoraBinary binary = binary("urn:sha1:huge", content);
+        assertEquals(content, read(binary));
+        assertEquals(0, spilledFiles());
+        assertEquals(content, read(binary));
+        verify(binary, times(2)).getContent();
+    }
+
+    @Test
+    public void testDiskIsBounded() throws Exception {
+        cache.setSpillDirectory(spillDirectory.getPath());
+        cache.init();
+        final FedoraBinary first = binary("urn:sha1:a", "0123456789abcdef");
+        read(first);
+        read(binary("urn:sha1:b", "0123456789abcdef"));
+        read(binary("urn:sha1:c", "0123456789abcdef"));
+        assertEquals(2, spilledFiles());
+        read(first);
+        verify(first, times(2)).getContent();
+    }
+
+    @Test
+    public void testRestoreSkipsLargeRecords() throws Exception {
+        cache.init();
+        cache.restore("small", "12345678".getBytes(UTF_8));
+        cache.restore("large", "0123456789abcdef".getBytes(UTF_8));
+        assertTrue(cache.getMemoryEntries().containsKey("small"));
+        assertFalse(cache.getMemoryEntries().containsKey("large"));
+    }
+
+    private String read(final FedoraBinary binary) throws Exception {
+        try (final InputStream src = cache.open(binary)) {
+            return IOUtils.toString(src, UTF_8);
+        }
+    }
+
+    private int spilledFiles() {
+        final String[] files = spillDirectory.list((dir, name) -> name.endsWith(".record"));
+        return files == null ? 0 : files.length;
+    }
+
+    private static long totalSize(final Iterable<byte[]> entries) {
+        long size = 0;
+        for (final byte[] entry : entries) {
+            size += entry.length;
+        }
+        return size;
+    }
+
+    private static FedoraBinary binary(final String digest, final String content) throws Exception {
+        final byte[] bytes = content.getBytes(UTF_8);
+        final FedoraBinary binary = mock(FedoraBinary.class);
+        when(binary.getPath()).thenReturn("/" + digest);
+        when(binary.getContentDigest()).thenReturn(URI.create(digest));
+        when(binary.getContentSize()).thenReturn((long) bytes.length);
+        when(binary.getContent()).thenAnswer(i -> new ByteArrayInputStream(bytes));
+        return binary;
+    }
+}
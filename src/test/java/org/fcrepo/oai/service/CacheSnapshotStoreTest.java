@@ -0,0 +1,228 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jcr.NamespaceException;
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openarchives.oai._2.IdentifyType;
+
+/**
+ * @author agent
+ */
+public class CacheSnapshotStoreTest {
+
+    private static final String DC = "http://purl.org/dc/elements/1.1/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CacheSnapshotStore store;
+
+    private OAIProviderService providerService;
+
+    private NamespaceRegistry namespaces;
+
+    private Session session;
+
+    private RecordValidator validator;
+
+    private BinaryCache cache;
+
+    private MetadataFormat format;
+
+    private File file;
+
+    private final Map<String, String> propertyNames = new ConcurrentHashMap<>();
+
+    private final Map<String, IdentifyType> identify = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        session = mock(Session.class);
+        final Workspace workspace = mock(Workspace.class);
+        namespaces = mock(NamespaceRegistry.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getNamespaceRegistry()).thenReturn(namespaces);
+        when(namespaces.getURI("dc")).thenReturn(DC);
+
+        format = new MetadataFormat();
+        format.setPrefix("title");
+        format.setSchemaUrl("http://example.org/title.xsd");
+        final Map<String, MetadataFormat> formats = new HashMap<>();
+        formats.put("title", format);
+
+        providerService = mock(OAIProviderService.class);
+        when(providerService.getPropertyNames()).thenReturn(propertyNames);
+        when(providerService.getIdentifyCache()).thenReturn(identify);
+        when(providerService.getMetadataFormats()).thenReturn(formats);
+        when(providerService.getRootLastModified(session)).thenReturn(1000L);
+
+        validator = new RecordValidator();
+        validator.init();
+        cache = new BinaryCache();
+        cache.init();
+
+        file = new File(folder.getRoot(), "caches.bin");
+        store = newStore();
+
+        propertyNames.put(DC + "title", "dc:title");
+        final IdentifyType identifyType = new IdentifyType();
+        identifyType.setRepositoryName("Test repository");
+        identify.put("http://localhost/oai", identifyType);
+        validator.restoreVerdict("title urn:sha1:1", false);
+        cache.restore("urn:sha1:1", "content".getBytes(UTF_8));
+        store.destroy();
+        assertTrue(file.isFile());
+    }
+
+    @After
+    public void tearDown() {
+        validator.destroy();
+    }
+
+    @Test
+    public void testCachesAreRestored() throws Exception {
+        restartCaches();
+        store.init();
+        assertEquals("dc:title", propertyNames.get(DC + "title"));
+        assertEquals("Test repository", identify.get("http://localhost/oai").getRepositoryName());
+        assertEquals(Boolean.FALSE, validator.getVerdicts().get("title urn:sha1:1"));
+        assertArrayEquals("content".getBytes(UTF_8), cache.getMemoryEntries().get("urn:sha1:1"));
+    }
+
+    @Test
+    public void testStaleSnapshotIsIgnored() throws Exception {
+        restartCaches();
+        store.setMaxAge(-1);
+        store.init();
+        assertTrue(propertyNames.isEmpty());
+        assertTrue(identify.isEmpty());
+        assertTrue(validator.getVerdicts().isEmpty());
+        assertTrue(cache.getMemoryEntries().isEmpty());
+    }
+
+    @Test
+    public void testRemappedNamespaceIsIgnored() throws Exception {
+        restartCaches();
+        when(namespaces.getURI("dc")).thenThrow(new NamespaceException("dc"));
+        store.init();
+        assertFalse(propertyNames.containsKey(DC + "title"));
+        assertEquals(Boolean.FALSE, validator.getVerdicts().get("title urn:sha1:1"));
+    }
+
+    @Test
+    public void testIdentifyIsIgnoredAfterSetsChanged() throws Exception {
+        restartCaches();
+        when(providerService.getRootLastModified(session)).thenReturn(2000L);
+        store.init();
+        assertTrue(identify.isEmpty());
+        assertEquals("dc:title", propertyNames.get(DC + "title"));
+    }
+
+    @Test
+    public void testVerdictsAreIgnoredAfterSchemaChanged() throws Exception {
+        restartCaches();
+        format.setSchemaUrl("http://example.org/title-2.xsd");
+        store.init();
+        assertTrue(validator.getVerdicts().isEmpty());
+        /* records are keyed by content digest and are restored regardless */
+        assertArrayEquals("content".getBytes(UTF_8), cache.getMemoryEntries().get("urn:sha1:1"));
+    }
+
+    @Test
+    public void testVerdictsOfRemovedFormatAreIgnored() throws Exception {
+        restartCaches();
+        providerService.getMetadataFormats().clear();
+        store.init();
+        assertTrue(validator.getVerdicts().isEmpty());
+    }
+
+    @Test
+    public void testUnknownFormatIsIgnored() throws Exception {
+        Files.write(file.toPath(), "not a snapshot".getBytes(UTF_8));
+        restartCaches();
+        store.init();
+        assertTrue(propertyNames.isEmpty());
+        assertTrue(cache.getMemoryEntries().isEmpty());
+    }
+
+    @Test
+    public void testTruncatedSnapshotIsIgnored() throws Exception {
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+        restartCaches();
+        store.init();
+        /* the records come last and are lost, the caches start cold for them */
+        assertTrue(cache.getMemoryEntries().isEmpty());
+    }
+
+    @Test
+    public void testMissingSnapshotIsIgnored() throws Exception {
+        assertTrue(file.delete());
+        restartCaches();
+        store.init();
+        assertTrue(propertyNames.isEmpty());
+    }
+
+    private CacheSnapshotStore newStore() {
+        final CacheSnapshotStore snapshotStore = new CacheSnapshotStore();
+        final SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getInternalSession()).thenReturn(session);
+        setField(snapshotStore, "providerService", providerService);
+        setField(snapshotStore, "sessionFactory", sessionFactory);
+        setField(snapshotStore, "recordValidator", validator);
+        setField(snapshotStore, "binaryCache", cache);
+        snapshotStore.setFile(file.getPath());
+        return snapshotStore;
+    }
+
+    private void restartCaches() throws Exception {
+        propertyNames.clear();
+        identify.clear();
+        validator.destroy();
+        validator = new RecordValidator();
+        validator.init();
+        cache = new BinaryCache();
+        cache.init();
+        store = newStore();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.jcr.Session;
+import javax.xml.bind.JAXBElement;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openarchives.oai._2.HeaderType;
+import org.openarchives.oai._2.ListIdentifiersType;
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.ObjectFactory;
+import org.openarchives.oai._2.RequestType;
+
+/**
+ * @author agent
+ */
+public class PagePrefetcherTest {
+
+    private static final ObjectFactory oaiFactory = new ObjectFactory();
+
+    private static final String BASE_URI = "http://localhost:8080/fcrepo/rest";
+
+    private static final Function<String, String> IDENTIFIERS = path -> BASE_URI + path;
+
+    private PagePrefetcher prefetcher;
+
+    private LocalInvalidationBus invalidationBus;
+
+    private Session session;
+
+    @Before
+    public void setUp() {
+        session = mock(Session.class);
+        final SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getInternalSession()).thenReturn(session);
+        invalidationBus = new LocalInvalidationBus();
+
+        prefetcher = new PagePrefetcher();
+        setField(prefetcher, "sessionFactory", sessionFactory);
+        setField(prefetcher, "invalidationBus", invalidationBus);
+        prefetcher.init();
+    }
+
+    @After
+    public void tearDown() {
+        prefetcher.destroy();
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        final JAXBElement<OAIPMHtype> page = page("/a", "/b");
+        prefetcher.prefetch("user", "token", IDENTIFIERS, t -> s -> page);
+        assertSame(page, prefetcher.take("user", "token"));
+        verify(session).logout();
+        /* pages are handed out once */
+        assertNull(prefetcher.take("user", "token"));
+    }
+
+    @Test
+    public void testMissForOtherUserOrToken() throws Exception {
+        prefetcher.prefetch("user", "token", IDENTIFIERS, t -> s -> page("/a"));
+        assertNull(prefetcher.take("other", "token"));
+        assertNull(prefetcher.take("user", "other"));
+        assertNotNull(prefetcher.take("user", "token"));
+    }
+
+    @Test
+    public void testMissIfLoadingFailed() throws Exception {
+        prefetcher.prefetch("user", "token", IDENTIFIERS, t -> s -> {
+            throw new IllegalStateException("failed");
+        });
+        assertNull(prefetcher.take("user", "token"));
+    }
+
+    @Test
+    public void testMissAfterTtl() throws Exception {
+        /* pages expire before they are taken */
+        prefetcher.setTtl(-1);
+        prefetcher.prefetch("user", "token", IDENTIFIERS, t -> s -> page("/a")).get(5, TimeUnit.SECONDS);
+        assertNull(prefetcher.take("user", "token"));
+    }
+
+    @Test
+    public void testSkipsWhenFull() throws Exception {
+        prefetcher.setMaxPages(1);
+        prefetcher.prefetch("user", "first", IDENTIFIERS, t -> s -> page("/a"));
+        prefetcher.prefetch("user", "second", IDENTIFIERS, t -> s -> page("/b"));
+        assertNull(prefetcher.take("user", "second"));
+        assertNotNull(prefetcher.take("user", "first"));
+    }
+
+    @Test
+    public void testChangedObjectDropsLoadedPage() throws Exception {
+        prefetcher.prefetch("user", "token", IDENTIFIERS, t -> s -> page("/a", "/b")).get(5, TimeUnit.SECONDS);
+        invalidationBus.publish(new Invalidation(Invalidation.Scope.OBJECT, "/b"));
+        assertNull(prefetcher.take("user", "token"));
+    }
+
+    @Test
+    public void testUnrelatedChangeKeepsLoadedPage() throws Exception {
+        final JAXBElement<OAIPMHtype> page = page("/a", "/b");
+        prefetcher.prefetch("user", "token", IDENTIFIERS, t -> s -> page).get(5, TimeUnit.SECONDS);
+        invalidationBus.publish(new Invalidation(Invalidation.Scope.OBJECT, "/c"));
+        assertSame(page, prefetcher.take("user", "token"));
+    }
+
+    @Test
+    public void testChangeOfOtherObjectWithSamePathSuffixKeepsLoadedPage() throws Exception {
+        final JAXBElement<OAIPMHtype> page = page("/x/a", "/x/b");
+        prefetcher.prefetch("user", "token", IDENTIFIERS, t -> s -> page).get(5, TimeUnit.SECONDS);
+        invalidationBus.publish(new Invalidation(Invalidation.Scope.OBJECT, "/a"));
+        assertSame(page, prefetcher.take("user", "token"));
+    }
+
+    @Test
+    public void testConsecutivePagesAreHits() throws Exception {
+        final long hits = OAIProviderService.cacheHitMeter.getCount();
+        final PagePrefetcher.PageSource source = t -> s -> {
+            switch (t) {
+                case "page-2":
+                    return pageLinkedTo("page-3", "/c", "/d");
+                case "page-3":
+                    return page("/e");
+                default:
+                    throw new IllegalStateException("Unknown page " + t);
+            }
+        };
+        /* the first page was answered by a query, which prefetched the second */
+        prefetcher.prefetch("user", "page-2", IDENTIFIERS, source);
+
+        final JAXBElement<OAIPMHtype> second = prefetcher.take("user", "page-2");
+        assertNotNull(second);
+        assertEquals(BASE_URI + "/c", second.getValue().getListIdentifiers().getHeader().get(0).getIdentifier());
+        final JAXBElement<OAIPMHtype> third = prefetcher.take("user", "page-3");
+        assertNotNull(third);
+        assertEquals(BASE_URI + "/e", third.getValue().getListIdentifiers().getHeader().get(0).getIdentifier());
+        assertEquals(hits + 2, OAIProviderService.cacheHitMeter.getCount());
+    }
+
+    @Test
+    public void testUnrelatedChangeKeepsLoadingPage() throws Exception {
+        final JAXBElement<OAIPMHtype> page = page("/a", "/b");
+        final CountDownLatch release = new CountDownLatch(1);
+        prefetcher.prefetch("user", "token", IDENTIFIERS, t -> s -> {
+            await(release);
+            return page;
+        });
+        invalidationBus.publish(new Invalidation(Invalidation.Scope.OBJECT, "/c"));
+        release.countDown();
+        assertSame(page, prefetcher.take("user", "token"));
+    }
+
+    @Test
+    public void testChangeWhileLoadingIsCheckedOnTake() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        prefetcher.prefetch("user", "token", IDENTIFIERS, t -> s -> {
+            await(release);
+            return page("/a", "/b");
+        });
+        invalidationBus.publish(new Invalidation(Invalidation.Scope.OBJECT, "/a"));
+        release.countDown();
+        assertNull(prefetcher.take("user", "token"));
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static JAXBElement<OAIPMHtype> page(final String... paths) {
+        return pageLinkedTo(null, paths);
+    }
+
+    private static JAXBElement<OAIPMHtype> pageLinkedTo(final String token, final String... paths) {
+        final ListIdentifiersType list = oaiFactory.createListIdentifiersType();
+        for (final String path : paths) {
+            final HeaderType header = oaiFactory.createHeaderType();
+            header.setIdentifier(BASE_URI + path);
+            list.getHeader().add(header);
+        }
+        final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
+        oai.setListIdentifiers(list);
+        if (token != null) {
+            final RequestType request = oaiFactory.createRequestType();
+            request.setResumptionToken(token);
+            oai.setRequest(request);
+        }
+        return oaiFactory.createOAIPMH(oai);
+    }
+}
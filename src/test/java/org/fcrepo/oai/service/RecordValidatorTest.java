@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.api.models.FedoraBinary;
+import org.fcrepo.kernel.api.services.BinaryService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * @author agent
+ */
+public class RecordValidatorTest {
+
+    private static final String VALID = "<title xmlns=\"http://example.org/title\">A title</title>";
+
+    private static final String INVALID = "<title xmlns=\"http://example.org/title\"></title>";
+
+    private RecordValidator validator;
+
+    private BinaryService binaryService;
+
+    private Session session;
+
+    private MetadataFormat format;
+
+    @Before
+    public void setUp() {
+        session = mock(Session.class);
+        final SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getInternalSession()).thenReturn(session);
+        binaryService = mock(BinaryService.class);
+
+        validator = new RecordValidator();
+        setField(validator, "sessionFactory", sessionFactory);
+        setField(validator, "binaryService", binaryService);
+        validator.setExcludeInvalid(true);
+        validator.init();
+
+        format = new MetadataFormat();
+        format.setPrefix("title");
+        format.setSchemaUrl("http://example.org/title.xsd");
+        format.setSchemaLocation(new ClassPathResource("test-data/title.xsd"));
+    }
+
+    @After
+    public void tearDown() {
+        validator.destroy();
+    }
+
+    @Test
+    public void testValidRecordIsServed() throws Exception {
+        final FedoraBinary binary = binary("/valid", "urn:sha1:1", VALID);
+        assertFalse(validator.isExcluded(format, binary));
+        awaitVerdict("title urn:sha1:1");
+        assertEquals(Boolean.TRUE, validator.getVerdicts().get("title urn:sha1:1"));
+        assertFalse(validator.isExcluded(format, binary));
+    }
+
+    @Test
+    public void testInvalidRecordIsExcludedOnceKnown() throws Exception {
+        final FedoraBinary binary = binary("/invalid", "urn:sha1:2", INVALID);
+        /* served unchecked until the verdict is known */
+        assertFalse(validator.isExcluded(format, binary));
+        awaitVerdict("title urn:sha1:2");
+        assertEquals(Boolean.FALSE, validator.getVerdicts().get("title urn:sha1:2"));
+        assertTrue(validator.isExcluded(format, binary));
+    }
+
+    @Test
+    public void testInvalidRecordIsServedUnlessExcluded() throws Exception {
+        validator.setExcludeInvalid(false);
+        final FedoraBinary binary = binary("/invalid", "urn:sha1:3", INVALID);
+        validator.isExcluded(format, binary);
+        awaitVerdict("title urn:sha1:3");
+        assertFalse(validator.isExcluded(format, binary));
+    }
+
+    @Test
+    public void testVerdictIsSharedByContentDigest() throws Exception {
+        validator.restoreVerdict("title urn:sha1:4", false);
+        final FedoraBinary binary = binary("/other", "urn:sha1:4", VALID);
+        assertTrue(validator.isExcluded(format, binary));
+        verify(binaryService, never()).findOrCreate(session, "/other");
+    }
+
+    @Test
+    public void testRecordWithoutDigestIsNotValidated() throws Exception {
+        final FedoraBinary binary = binary("/undigested", null, INVALID);
+        assertFalse(validator.isExcluded(format, binary));
+        assertFalse(validator.hasPending());
+        assertTrue(validator.getVerdicts().isEmpty());
+    }
+
+    @Test
+    public void testUnavailableSchemaServesRecordsUnchecked() throws Exception {
+        final MetadataFormat unavailable = new MetadataFormat();
+        unavailable.setPrefix("missing");
+        unavailable.setSchemaLocation(new ClassPathResource("test-data/missing.xsd"));
+        try {
+            unavailable.getSchema();
+        } catch (final IOException e) {
+            /* expected, the failure is remembered */
+        }
+        assertTrue(unavailable.isSchemaUnavailable());
+        final FedoraBinary binary = binary("/invalid", "urn:sha1:5", INVALID);
+        assertFalse(validator.isExcluded(unavailable, binary));
+        assertFalse(validator.hasPending());
+        assertFalse(validator.getVerdicts().containsKey("missing urn:sha1:5"));
+    }
+
+    private FedoraBinary binary(final String path, final String digest, final String content) throws Exception {
+        final FedoraBinary binary = mock(FedoraBinary.class);
+        when(binary.getPath()).thenReturn(path);
+        when(binary.getContentDigest()).thenReturn(digest == null ? null : URI.create(digest));
+        when(binary.getContent()).thenAnswer(i -> new ByteArrayInputStream(content.getBytes(UTF_8)));
+        when(binaryService.findOrCreate(session, path)).thenReturn(binary);
+        return binary;
+    }
+
+    private void awaitVerdict(final String key) throws Exception {
+        final Future<?> validation = validator.getPending(key);
+        if (validation != null) {
+            validation.get(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class SessionPoolTest {
+
+    private SessionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        final SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getInternalSession()).thenAnswer(i -> mock(Session.class));
+        pool = new SessionPool();
+        setField(pool, "sessionFactory", sessionFactory);
+        pool.setSize(1);
+        pool.setBorrowTimeout(10);
+    }
+
+    @Test
+    public void testBorrowedSessionIsPooled() throws Exception {
+        pool.init();
+        final Session session = pool.borrow();
+        assertTrue(pool.isPooled(session));
+        assertFalse(pool.isPooled(mock(Session.class)));
+    }
+
+    @Test
+    public void testBorrowTimesOutWhileAllSessionsAreInUse() throws Exception {
+        pool.init();
+        final Session session = pool.borrow();
+        assertNull(pool.borrow());
+        pool.release(session);
+        assertSame(session, pool.borrow());
+    }
+
+    @Test
+    public void testSessionIsRefreshedAfterInterval() throws Exception {
+        pool.setRefreshInterval(-1);
+        pool.init();
+        final Session session = pool.borrow();
+        verify(session).refresh(false);
+    }
+
+    @Test
+    public void testSessionIsNotRefreshedWithinInterval() throws Exception {
+        pool.init();
+        final Session session = pool.borrow();
+        verify(session, never()).refresh(false);
+    }
+
+    @Test
+    public void testSessionIsReturnedWhenRefreshFails() throws Exception {
+        pool.setRefreshInterval(-1);
+        pool.init();
+        final Session session = pool.borrow();
+        pool.release(session);
+        doThrow(new RepositoryException("refresh")).doNothing().when(session).refresh(false);
+        try {
+            pool.borrow();
+            fail("the failed refresh has to be reported");
+        } catch (final RepositoryException e) {
+            /* expected */
+        }
+        /* the session went back to the pool and is tried again */
+        assertSame(session, pool.borrow());
+    }
+
+    @Test
+    public void testDestroyLogsOutSessions() throws Exception {
+        pool.init();
+        final Session session = pool.borrow();
+        pool.release(session);
+        pool.destroy();
+        verify(session).logout();
+        assertFalse(pool.isPooled(session));
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 DuraSpace, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fcrepo.oai.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import javax.jcr.Session;
+import javax.xml.bind.JAXBElement;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openarchives.oai._2.HeaderType;
+import org.openarchives.oai._2.IdentifyType;
+import org.openarchives.oai._2.ListIdentifiersType;
+import org.openarchives.oai._2.ListRecordsType;
+import org.openarchives.oai._2.OAIPMHtype;
+import org.openarchives.oai._2.ObjectFactory;
+import org.openarchives.oai._2.RecordType;
+
+/**
+ * @author agent
+ */
+public class SnapshotServiceTest {
+
+    private static final ObjectFactory oaiFactory = new ObjectFactory();
+
+    private static final String IDENTIFIER = "http://localhost:8080/rest/oai-test-record";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SnapshotService snapshotService;
+
+    private OAIProviderService providerService;
+
+    private LocalInvalidationBus invalidationBus;
+
+    private Session session;
+
+    @Before
+    public void setUp() throws Exception {
+        session = mock(Session.class);
+        final SessionFactory sessionFactory = mock(SessionFactory.class);
+        when(sessionFactory.getInternalSession()).thenReturn(session);
+        invalidationBus = new LocalInvalidationBus();
+
+        final MetadataFormat format = new MetadataFormat();
+        format.setPrefix("oai_dc");
+        providerService = mock(OAIProviderService.class);
+        when(providerService.getMetadataFormats()).thenReturn(Collections.singletonMap("oai_dc", format));
+        when(providerService.listAvailableMetadataFormats()).thenReturn(Collections.emptyList());
+        when(providerService.createIdentify(any(Session.class), any())).thenReturn(new IdentifyType());
+        when(providerService.listSetSpecs(any(Session.class))).thenReturn(Collections.emptyList());
+        when(providerService.getMaxListSize()).thenReturn(5);
+        when(providerService.listRecordsPage(any(Session.class), any(), any(MetadataFormat.class), any(), any(),
+                any(), any(), any(), anyLong(), anyBoolean())).thenReturn(recordsPage());
+        when(providerService.listIdentifiersPage(any(Session.class), any(), any(), any(), any(), any(), any(),
+                any(), anyLong(), anyBoolean())).thenReturn(identifiersPage());
+
+        snapshotService = new SnapshotService();
+        setField(snapshotService, "providerService", providerService);
+        setField(snapshotService, "sessionFactory", sessionFactory);
+        setField(snapshotService, "invalidationBus", invalidationBus);
+        snapshotService.setDirectory(folder.getRoot().getPath());
+        snapshotService.setBaseUrl("http://localhost:8080/rest");
+        snapshotService.setIncludeSets(false);
+        snapshotService.setInitialDelay(60 * 60 * 1000);
+        snapshotService.setCheckInterval(0);
+        snapshotService.init();
+    }
+
+    @After
+    public void tearDown() {
+        snapshotService.destroy();
+    }
+
+    @Test
+    public void testNoPageBeforeFirstSnapshot() throws Exception {
+        assertNull(snapshotService.findPage(session, "ListRecords", "oai_dc", null, null));
+        assertNull(snapshotService.getStaticRepository());
+    }
+
+    @Test
+    public void testServesRenderedPages() throws Exception {
+        snapshotService.render();
+        final File records = snapshotService.findPage(session, "ListRecords", "oai_dc", null, null);
+        assertNotNull(records);
+        assertTrue(gunzip(records).contains(IDENTIFIER));
+        final File identifiers = snapshotService.findPage(session, "ListIdentifiers", "oai_dc", null, null);
+        assertNotNull(identifiers);
+        assertTrue(gunzip(identifiers).contains(IDENTIFIER));
+        assertTrue(FileUtils.readFileToString(snapshotService.getStaticRepository(), UTF_8).contains(IDENTIFIER));
+    }
+
+    @Test
+    public void testNoPageForOtherRequests() throws Exception {
+        snapshotService.render();
+        assertNull(snapshotService.findPage(session, "GetRecord", "oai_dc", null, null));
+        assertNull(snapshotService.findPage(session, "ListRecords", null, null, null));
+        assertNull(snapshotService.findPage(session, "ListRecords", "marc21", null, null));
+        assertNull(snapshotService.findPage(session, "ListRecords", "oai_dc", "some-set", null));
+        assertNull(snapshotService.findPage(session, "ListRecords", "oai_dc", null, "/objects/a"));
+    }
+
+    @Test
+    public void testStaleAfterModification() throws Exception {
+        snapshotService.render();
+        assertNotNull(snapshotService.findPage(session, "ListRecords", "oai_dc", null, null));
+        when(providerService.isModifiedSince(any(Session.class), anyLong())).thenReturn(true);
+        Thread.sleep(5);
+        assertNull(snapshotService.findPage(session, "ListRecords", "oai_dc", null, null));
+    }
+
+    @Test
+    public void testStaleAfterInvalidation() throws Exception {
+        snapshotService.render();
+        assertNotNull(snapshotService.findPage(session, "ListRecords", "oai_dc", null, null));
+        invalidationBus.publish(new Invalidation(Invalidation.Scope.OBJECT, "/oai-test-record"));
+        assertNull(snapshotService.findPage(session, "ListRecords", "oai_dc", null, null));
+    }
+
+    @Test
+    public void testFreshSnapshotAfterStaleOne() throws Exception {
+        snapshotService.render();
+        invalidationBus.publish(new Invalidation(Invalidation.Scope.OBJECT, "/oai-test-record"));
+        assertNull(snapshotService.findPage(session, "ListRecords", "oai_dc", null, null));
+        Thread.sleep(5);
+        snapshotService.render();
+        assertNotNull(snapshotService.findPage(session, "ListRecords", "oai_dc", null, null));
+    }
+
+    @Test
+    public void testReplacedSnapshotIsKeptUntilNextRender() throws Exception {
+        snapshotService.render();
+        final File first = snapshotService.findPage(session, "ListRecords", "oai_dc", null, null);
+        Thread.sleep(5);
+        snapshotService.render();
+        /* a request may still be streaming the replaced page */
+        assertTrue(first.isFile());
+        assertEquals(2, snapshots());
+        Thread.sleep(5);
+        snapshotService.render();
+        assertFalse(first.exists());
+        assertEquals(2, snapshots());
+    }
+
+    private int snapshots() {
+        return folder.getRoot().list((dir, name) -> name.startsWith("snapshot-")).length;
+    }
+
+    private static String gunzip(final File file) throws Exception {
+        try (final InputStream src = new GZIPInputStream(new FileInputStream(file))) {
+            return IOUtils.toString(src, UTF_8);
+        }
+    }
+
+    private static JAXBElement<OAIPMHtype> recordsPage() {
+        final RecordType record = oaiFactory.createRecordType();
+        record.setHeader(header());
+        final ListRecordsType list = oaiFactory.createListRecordsType();
+        list.getRecord().add(record);
+        final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
+        oai.setListRecords(list);
+        return oaiFactory.createOAIPMH(oai);
+    }
+
+    private static JAXBElement<OAIPMHtype> identifiersPage() {
+        final ListIdentifiersType list = oaiFactory.createListIdentifiersType();
+        list.getHeader().add(header());
+        final OAIPMHtype oai = oaiFactory.createOAIPMHtype();
+        oai.setListIdentifiers(list);
+        return oaiFactory.createOAIPMH(oai);
+    }
+
+    private static HeaderType header() {
+        final HeaderType header = oaiFactory.createHeaderType();
+        header.setIdentifier(IDENTIFIER);
+        header.setDatestamp("2015-01-01T00:00:00Z");
+        return header;
+    }
+}
@@ -0,0 +1,12 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+                xmlns:marc="http://www.loc.gov/MARC21/slim" exclude-result-prefixes="marc">
+
+    <xsl:output method="xml" omit-xml-declaration="yes"/>
+
+    <xsl:template match="/marc:record">
+        <title xmlns="http://example.org/title">
+            <xsl:value-of select="marc:datafield[@tag='245']/marc:subfield[@code='a']"/>
+        </title>
+    </xsl:template>
+</xsl:stylesheet>